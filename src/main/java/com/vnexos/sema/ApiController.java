@@ -1,62 +1,86 @@
 package com.vnexos.sema;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.UncheckedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.vnexos.sema.http.CacheStats;
+import com.vnexos.sema.http.Cbor;
+import com.vnexos.sema.http.CoalesceStats;
+import com.vnexos.sema.http.Compression;
+import com.vnexos.sema.http.ConcurrencyLimiter;
+import com.vnexos.sema.http.CorsPolicy;
+import com.vnexos.sema.http.ETags;
+import com.vnexos.sema.http.FileTransfer;
+import com.vnexos.sema.http.FinishableResponse;
+import com.vnexos.sema.http.HeadResponse;
+import com.vnexos.sema.http.MeteredResponse;
+import com.vnexos.sema.http.RateLimiter;
+import com.vnexos.sema.http.RequestCoalescer;
+import com.vnexos.sema.http.ResponseCache;
 import com.vnexos.sema.loader.ApiException;
 import com.vnexos.sema.loader.HttpMethod;
+import com.vnexos.sema.loader.RequestView;
 import com.vnexos.sema.loader.Route;
-import com.vnexos.sema.util.Mapper;
+import com.vnexos.sema.loader.RouteMatch;
+import com.vnexos.sema.loader.RouteTable;
 import com.vnexos.sema.util.PrivateServiceConstructor;
-import com.vnexos.sema.util.StringUtils;
 import com.vnexos.sema.util.format.FormatException;
 import com.vnexos.sema.util.format.Formatter;
 import com.vnexos.sema.util.logger.Logger;
 import com.vnexos.sema.util.logger.LoggerFormatDriver;
 
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.ServletException;
-import jakarta.servlet.annotation.MultipartConfig;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.ServletResponseWrapper;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import jakarta.servlet.http.Part;
 
 /**
  * Handles all incoming requests.
  * 
  * @author Trần Việt Đăng Quang
  */
-@MultipartConfig
 public class ApiController extends HttpServlet {
   private static final long serialVersionUID = -8740548020982623621L;
-  private static final List<Route> apis;
+  private static final RouteTable routes;
+  private static final BatchHandler batch;
 
-  // For cors
-  private static String[] origins;
-  private static String methods;
-  private static String headers;
-  private static int maxAge;
-  private static boolean credentials;
+  // For request body
+  private static long maxBodySize;
+
+  // For metrics
+  private static String metricsPath;
+
+  // For virtual threads
+  private transient ExecutorService executor;
+  private transient Semaphore permits;
 
   static {
-    apis = new ArrayList<>();
-    origins = Constants.getString("cors.origin").split("\\|");
-    methods = Constants.getString("cors.method").replaceAll("\\|", ", ");
-    headers = Constants.getString("cors.header").replaceAll("\\|", ", ");
-    maxAge = Constants.getInteger("cors.max-age");
-    credentials = Constants.getBoolean("cors.credentials");
+    routes = new RouteTable();
+    batch = new BatchHandler(routes);
+    maxBodySize = Constants.getLong("request.max-body-size", 10485760);
+    metricsPath = Constants.getString("metrics.path", "");
   }
 
   /**
@@ -121,17 +145,16 @@ public class ApiController extends HttpServlet {
   }
 
   /**
-   * Finds the route that matches the given route and HTTP method.
+   * Finds the route that matches the path and HTTP method of a request. A
+   * {@code HEAD} request matches the {@code GET} route.
    * 
-   * @param endpoint   the path of route
-   * @param httpMethod the method of route
-   * @return the matched route
+   * @param req the request of server
+   * @return the matched route with its params, null if there is no route
    */
-  private static final Route findRoute(String endpoint, HttpMethod httpMethod) {
-    for (Route route : apis)
-      if (route.checkRoute(endpoint).isPresent() && route.getHttpMethod() == httpMethod)
-        return route;
-    return null;
+  private static final RouteMatch findRoute(HttpServletRequest req) {
+    String method = req.getMethod();
+    HttpMethod httpMethod = method.equals("HEAD") ? HttpMethod.GET : HttpMethod.of(method);
+    return httpMethod == null ? null : routes.find(req.getRequestURI(), httpMethod);
   }
 
   /**
@@ -145,172 +168,593 @@ public class ApiController extends HttpServlet {
    */
   public static final void addApi(String endpoint, HttpMethod httpMethod, Method method, Object instance)
       throws ApiException {
-    if (findRoute(endpoint, httpMethod) == null)
-      apis.add(new Route(httpMethod, endpoint, method, instance));
-    else
-      throw new ApiException("Route `" + endpoint + "` with `" + httpMethod + "` method has already existed.");
+    addApi(endpoint, httpMethod, method, instance, ConcurrencyLimiter.getGlobal());
   }
 
   /**
-   * Handles CORS.
+   * Add route to the list with the limiter of invocations of its module
    * 
-   * @param req  the request of server
-   * @param resp the response of server
-   * @return false if the CORS failed, true otherwise
+   * @param endpoint   the path of route
+   * @param httpMethod the HTTP method of route
+   * @param method     the handling method of route
+   * @param instance   the instance of constroller which contains handling method
+   * @param limiter    the limiter of invocations, null for no limit
+   * @throws ApiException if an error occurs while processing route
    */
-  private boolean handleCors(HttpServletRequest req, HttpServletResponse resp) {
-    String origin = req.getHeader("Origin");
-
-    if (Arrays.stream(origins).anyMatch(o -> o.equals(origin))) {
-      resp.setHeader("Access-Control-Allow-Origin", origin);
-      resp.setHeader("Access-Control-Allow-Credentials", Boolean.toString(credentials));
-    }
-    resp.setHeader("Access-Control-Allow-Methods", methods);
-    resp.setHeader("Access-Control-Allow-Headers", headers);
-    resp.setHeader("Access-Control-Max-Age", Integer.toString(maxAge));
-    return origin != null || Constants.getBoolean("module.development");
+  public static final void addApi(String endpoint, HttpMethod httpMethod, Method method, Object instance,
+      ConcurrencyLimiter limiter) throws ApiException {
+    Route route = new Route(httpMethod, endpoint, method, instance);
+    route.setConcurrencyLimiter(limiter);
+    routes.add(route);
   }
 
   /**
-   * Converts to the body and parts of multi part.
+   * Gets all routes of the loaded modules, whose metrics can be read with
+   * {@link Route#getMetrics()}.
    * 
-   * @param req      the request of server
-   * @param filePart the list to store part get from request
-   * @return the parsed body in JSON
-   * @throws IOException      if reading body failed
-   * @throws ServletException if getting parts failed
+   * @return the list of routes
    */
-  private String parseRequestBody(HttpServletRequest req, List<Part> filePart) throws IOException, ServletException {
-    String contentType = req.getContentType();
-    if (contentType != null && contentType.startsWith("multipart/form-data")) {
-      Map<String, String> data = new HashMap<>();
-      for (Part part : req.getParts()) {
-        if (part.getContentType() == null) {
-          data.put(part.getName(), readPart(part));
-        } else {
-          filePart.add(part);
-        }
-      }
-      return Mapper.map(data, String.class);
-    } else {
-      return readBody(req.getReader());
-    }
+  public static final List<Route> getRoutes() {
+    return routes.getRoutes();
   }
 
   /**
-   * Reads body from reader of request.
+   * Answers a preflight request with the methods of the routes matching its
+   * path. No route is invoked and the body is not read.
    * 
-   * @param reader the request reader
-   * @return the parsed body in JSON
-   * @throws IOException if reading lines of reader failed
+   * @param req  the request of server
+   * @param resp the response of server
+   * @throws IOException if the response cannot be written
    */
-  private String readBody(BufferedReader reader) throws IOException {
-    StringBuilder body = new StringBuilder();
-    String line;
-    while ((line = reader.readLine()) != null) {
-      body.append(line).append("\n");
+  private void handlePreflight(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    long time = System.currentTimeMillis();
+    String path = req.getRequestURI();
+    EnumSet<HttpMethod> allowed = routes.findMethods(path);
+    if (allowed.isEmpty()) {
+      CorsPolicy.apply(req, resp);
+      writeMessage(resp, 404, "Not found!");
+    } else {
+      CorsPolicy.preflight(req, resp, allowed);
     }
-    return body.toString();
+    logRoute(resp.getStatus(), path, req.getQueryString(), req.getMethod(), time);
   }
 
   /**
-   * Reads information inside a part
+   * Refuses the request with the {@code 429} status code if its client has sent
+   * too many requests to the route.
    * 
-   * @param part the part to read
-   * @return the line get from part
-   * @throws IOException if reading from part failed
+   * @param req   the request of server
+   * @param resp  the response of server
+   * @param match the matched route
+   * @return true if the request has been refused, false otherwise
+   * @throws IOException if the response cannot be written
    */
-  private String readPart(Part part) throws IOException {
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(part.getInputStream()))) {
-      StringBuilder result = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        result.append(line).append("\n");
-      }
-      return result.toString().trim();
-    }
+  private boolean isRateLimited(HttpServletRequest req, HttpServletResponse resp, RouteMatch match)
+      throws IOException {
+    RateLimiter limiter = match.getRoute().getRateLimiter();
+    if (limiter == null)
+      return false;
+    long wait = limiter.acquire(req);
+    if (wait == 0)
+      return false;
+
+    long time = System.currentTimeMillis();
+    MeteredResponse metered = new MeteredResponse(resp, match.getRoute().getMetrics(), -1);
+    CorsPolicy.apply(req, metered);
+    metered.setHeader("Retry-After", Long.toString(Math.max(1, (wait + 999_999_999) / 1_000_000_000)));
+    writeMessage(metered, 429, "Too many requests!");
+    metered.end();
+    logRoute(429, req.getRequestURI(), req.getQueryString(), req.getMethod(), time);
+    return true;
   }
 
   /**
    * Write response with data in the {@code ApiResponse} object.
    * 
+   * @param req      the request of server
    * @param resp     the response of server
    * @param response the response get after processing route method
    * @throws IOException if writer from response cannot be get
    */
-  private void writeResponse(HttpServletResponse resp, ApiResponse<?> response) throws IOException {
+  private void writeResponse(HttpServletRequest req, HttpServletResponse resp, ApiResponse<?> response)
+      throws IOException {
+    if (response instanceof FileResponse) {
+      try {
+        FileTransfer.send(req, resp, (FileResponse) response);
+      } catch (ApiException e) {
+        writeError(resp, e);
+      }
+      return;
+    }
     resp.setContentType(response.getContentType());
     resp.setStatus(response.getStatusCode());
     if (response.getContentType().startsWith("text/html")) {
       resp.getWriter().write(response.getData().toString());
     } else if (response.getContentType().startsWith("application/json")) {
-      resp.getWriter().write(response.getJsonData());
+      resp.addHeader("Vary", "Accept");
+      if (Cbor.isAccepted(req)) {
+        resp.setContentType(Cbor.MEDIA_TYPE);
+        OutputStream os = resp.getOutputStream();
+        response.writeCborData(os);
+        return;
+      }
+      resp.setCharacterEncoding("UTF-8");
+      Writer writer = new BufferedWriter(new OutputStreamWriter(resp.getOutputStream(), StandardCharsets.UTF_8));
+      response.writeJsonData(writer);
+      writer.flush();
     } else {
+      byte[] data = response.getBinaryData();
+      resp.setContentLengthLong(data.length);
       OutputStream os = resp.getOutputStream();
-      os.write(response.getBinaryData());
-      resp.setContentLengthLong(response.getBinaryData().length);
+      os.write(data);
     }
   }
 
+  /**
+   * Writes the metrics of all routes and the state of the concurrency limiters
+   * as the response.
+   * 
+   * @param resp the response of server
+   * @throws IOException if writer from response cannot be get
+   */
+  private void writeMetrics(HttpServletResponse resp) throws IOException {
+    JsonArray array = new JsonArray();
+    for (Route route : routes.getRoutes()) {
+      JsonObject json = route.getMetrics().toJson();
+      json.addProperty("method", route.getHttpMethod().name());
+      json.addProperty("route", route.getRoute());
+      CacheStats cache = ResponseCache.getStats(route);
+      if (cache != null) {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("hits", cache.getHits());
+        stats.addProperty("misses", cache.getMisses());
+        json.add("cache", stats);
+      }
+      CoalesceStats coalesce = RequestCoalescer.getStats(route);
+      if (coalesce != null) {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("invocations", coalesce.getInvocations());
+        stats.addProperty("collapsed", coalesce.getCollapsed());
+        stats.addProperty("timeouts", coalesce.getTimeouts());
+        JsonObject unshared = new JsonObject();
+        for (RequestCoalescer.Unshared reason : RequestCoalescer.Unshared.values())
+          unshared.addProperty(reason.name().toLowerCase(Locale.ROOT), coalesce.getUnshared(reason));
+        stats.add("unshared", unshared);
+        json.add("coalesce", stats);
+      }
+      array.add(json);
+    }
+    JsonObject json = new JsonObject();
+    json.add("routes", array);
+    JsonObject limiters = new JsonObject();
+    for (Map.Entry<String, ConcurrencyLimiter> limiter : ConcurrencyLimiter.getLimiters().entrySet())
+      limiters.add(limiter.getKey().isEmpty() ? "global" : limiter.getKey(), limiter.getValue().toJson());
+    json.add("concurrency", limiters);
+
+    resp.setStatus(200);
+    resp.setContentType("application/json");
+    resp.setCharacterEncoding("UTF-8");
+    resp.setHeader("Cache-Control", "no-store");
+    resp.getWriter().write(json.toString());
+  }
+
+  /**
+   * Writes a message as the response. If a part of the response has already
+   * been sent, nothing is written.
+   * 
+   * @param resp       the response of server
+   * @param statusCode the status code of response
+   * @param message    the message to write
+   * @throws IOException if writer from response cannot be get
+   */
+  private void writeMessage(HttpServletResponse resp, int statusCode, String message) throws IOException {
+    if (resp.isCommitted())
+      return;
+    resp.resetBuffer();
+    resp.setStatus(statusCode);
+
+    JsonObject json = new JsonObject();
+    json.addProperty("msg", message);
+    try {
+      resp.getWriter().write(json.toString());
+    } catch (IllegalStateException e) {
+      // The output stream has already been used by the response
+      resp.getOutputStream().write(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Prepares the executor for handling requests on virtual threads if it is
+   * enabled.
+   */
+  @Override
+  public void init() throws ServletException {
+    if (Constants.getBoolean("request.virtual-threads")) {
+      executor = Executors.newVirtualThreadPerTaskExecutor();
+      int concurrency = Constants.getInteger("request.max-concurrency",
+          Constants.getInteger("sql.maxPoolSize", 10));
+      permits = concurrency > 0 ? new Semaphore(concurrency, true) : null;
+    }
+  }
+
+  /**
+   * Stops the executor of virtual threads.
+   */
+  @Override
+  public void destroy() {
+    if (executor != null)
+      executor.shutdown();
+  }
+
   /**
    * Handle all paths and methods.
+   * 
+   * <p>
+   * If virtual threads are enabled, the request is suspended and handled on a
+   * virtual thread, so the thread of the container is given back right away.
+   * The number of requests handled at the same time is limited, the others wait
+   * on the virtual threads without holding any thread of the container.
+   * 
+   * <p>
+   * Preflight requests are answered right away on the thread of the container.
+   * The rate limit of the route is checked before the request waits for a
+   * virtual thread or its body is read.
    */
   @Override
   protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+    if (req.getMethod().equals("OPTIONS")) {
+      handlePreflight(req, resp);
+      return;
+    }
+    RouteMatch match = findRoute(req);
+    if (match != null && isRateLimited(req, resp, match))
+      return;
+    if (executor == null || !req.isAsyncSupported()) {
+      handle(req, resp, match, null);
+      return;
+    }
+
+    AsyncContext async = req.startAsync();
+    async.setTimeout(0);
+    try {
+      executor.execute(() -> {
+        boolean isPending = false;
+        try {
+          if (permits != null)
+            permits.acquire();
+          try {
+            isPending = handle(req, resp, match, async);
+          } finally {
+            if (permits != null)
+              permits.release();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          writeSilently(resp, 503, "Service unavailable!");
+        } catch (Exception e) {
+          Constants.context.log(e);
+        } finally {
+          if (!isPending)
+            async.complete();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      writeMessage(resp, 503, "Service unavailable!");
+      async.complete();
+    }
+  }
+
+  /**
+   * Writes a message as the response, and logs the error if the message cannot
+   * be written.
+   * 
+   * @param resp       the response of server
+   * @param statusCode the status code of response
+   * @param message    the message to write
+   */
+  private void writeSilently(HttpServletResponse resp, int statusCode, String message) {
+    try {
+      writeMessage(resp, statusCode, message);
+    } catch (IOException e) {
+      Constants.context.log(e);
+    }
+  }
+
+  /**
+   * Writes the response for an error occurred while handling a request.
+   * 
+   * @param resp  the response of server
+   * @param error the error to handle
+   * @throws IOException if writer from response cannot be get
+   */
+  private void writeError(HttpServletResponse resp, Throwable error) throws IOException {
+    if (error instanceof CompletionException && error.getCause() != null)
+      error = error.getCause();
+
+    if (error instanceof TimeoutException) {
+      writeMessage(resp, 503, "Service unavailable!");
+    } else if (error instanceof ApiException) {
+      ApiException e = (ApiException) error;
+      Constants.context.log(e);
+      if (e.getStatusCode() == 503)
+        writeMessage(resp, 503, "Service unavailable!");
+      else if (e.getStatusCode() >= 500)
+        writeMessage(resp, e.getStatusCode(), "Internal server error!");
+      else
+        writeMessage(resp, e.getStatusCode(), e.getMessage());
+    } else {
+      Constants.context.log(error instanceof Exception
+          ? (Exception) error
+          : new ApiException("Cannot invoke route method", error));
+      writeMessage(resp, 500, "Internal server error!");
+    }
+  }
+
+  /**
+   * Wraps the response for compression, the {@code ETag} header, the response
+   * cache and the coalescing of the matched route.
+   * 
+   * @param req     the request of server
+   * @param resp    the response of server
+   * @param match   the matched route, null if there is no route
+   * @param request the view of the request, null if there is no route
+   * @return the wrapped response
+   */
+  private HttpServletResponse wrapResponse(HttpServletRequest req, HttpServletResponse resp, RouteMatch match,
+      RequestView request) {
+    resp = Compression.apply(req, resp);
+    if (match != null) {
+      resp = ETags.apply(req, resp, match.getRoute().getETag());
+      resp = ResponseCache.apply(req, resp, match, request);
+      resp = RequestCoalescer.apply(req, resp, match, request);
+    }
+    return resp;
+  }
+
+  /**
+   * Finishes all wrappers of the response from the outermost one, so that each
+   * of them sends its kept body to the next one.
+   * 
+   * @param resp the response returned from {@link #wrapResponse}
+   * @throws IOException if the body cannot be written
+   */
+  private void finish(ServletResponse resp) throws IOException {
+    while (resp instanceof ServletResponseWrapper) {
+      if (resp instanceof FinishableResponse)
+        ((FinishableResponse) resp).finish();
+      resp = ((ServletResponseWrapper) resp).getResponse();
+    }
+  }
+
+  /**
+   * Marks all wrappers of the response as failed, so a body which may have
+   * been cut is neither cached nor shared.
+   * 
+   * @param resp the response returned from {@link #wrapResponse}
+   */
+  private void markFailed(ServletResponse resp) {
+    while (resp instanceof ServletResponseWrapper) {
+      if (resp instanceof FinishableResponse)
+        ((FinishableResponse) resp).markFailed();
+      resp = ((ServletResponseWrapper) resp).getResponse();
+    }
+  }
+
+  /**
+   * Starts sending the events of a stream. The stream is written to the
+   * response of the container, as the wrappers would keep its events.
+   * 
+   * @param req    the request of server
+   * @param resp   the response of server
+   * @param stream the stream returned from the route method
+   * @param async  the context of the request if it has already been suspended,
+   *               null otherwise
+   * @return true if the stream is open, false if the request cannot be
+   *         suspended and an error has been written
+   * @throws IOException if the response cannot be written
+   */
+  private boolean openStream(HttpServletRequest req, HttpServletResponse resp, StreamResponse stream,
+      AsyncContext async) throws IOException {
+    if (async == null && !req.isAsyncSupported()) {
+      writeError(resp, new ApiException("Streaming responses need async support"));
+      return false;
+    }
+    ServletResponse raw = resp;
+    while (raw instanceof FinishableResponse)
+      raw = ((ServletResponseWrapper) raw).getResponse();
+
+    AsyncContext context = async != null ? async : req.isAsyncStarted() ? req.getAsyncContext() : req.startAsync();
+    stream.open(context, (HttpServletResponse) raw);
+    return true;
+  }
+
+  /**
+   * Handles a request by finding the matched route and invoking it.
+   * 
+   * <p>
+   * If the route method returns a {@code CompletionStage}, the request is
+   * suspended and the response is written when the stage completes.
+   * 
+   * <p>
+   * The response is compressed if the client accepts it and may be kept for
+   * the {@code ETag} header, so it must be finished before the request is
+   * completed.
+   * 
+   * <p>
+   * A {@code HEAD} request is handled by the {@code GET} route of its path,
+   * whose body is dropped.
+   * 
+   * @param req         the request of server
+   * @param servletResp the response of server
+   * @param found       the route matching the request, null if there is none
+   * @param async       the context of the request if it has already been
+   *                    suspended, null otherwise
+   * @return true if the response will be written later, false if it has been
+   *         written
+   * @throws IOException if the response cannot be written
+   */
+  private boolean handle(HttpServletRequest req, HttpServletResponse servletResp, RouteMatch found,
+      AsyncContext async) throws IOException {
     long time = System.currentTimeMillis();
-    boolean isOriginFailed = !handleCors(req, resp);
+    boolean isOriginFailed = !CorsPolicy.apply(req, servletResp);
 
     String path = req.getRequestURI();
     String method = req.getMethod();
-    Map<String, String> query = StringUtils.queryToMap(req.getQueryString());
-    List<Part> filePart = new ArrayList<>();
-    String body = parseRequestBody(req, filePart);
-    HttpMethod httpMethod = HttpMethod.valueOf(method);
-
-    // Get all headers from request
-    Map<String, String> headers = new HashMap<>();
-    Enumeration<String> headerNames = req.getHeaderNames();
-    while (headerNames.hasMoreElements()) {
-      String headerName = headerNames.nextElement();
-      headers.put(headerName, req.getHeader(headerName));
-    }
+    boolean isHead = method.equals("HEAD");
+    RouteMatch match = isOriginFailed ? null : found;
+    // The query, headers and body are only read if the route needs them
+    RequestView request = match == null ? null : new RequestView(req, maxBodySize, match.getRoute().getUpload());
+    MeteredResponse metered = match == null
+        ? null
+        : new MeteredResponse(servletResp, match.getRoute().getMetrics(), req.getContentLengthLong());
+    HttpServletResponse base = metered != null ? metered : servletResp;
+    HttpServletResponse resp = wrapResponse(req, isHead ? new HeadResponse(base) : base, match, request);
 
     try {
       if (isOriginFailed) {
-        resp.getWriter().write("{\"msg\": \"CORS failed!\"}");
-        resp.setStatus(400);
-        return;
+        writeMessage(resp, 400, "CORS failed!");
+        finish(resp);
+        return false;
+      }
+      if (metricsPath.equals(path) && match == null && method.equals("GET")) {
+        writeMetrics(resp);
+        finish(resp);
+        logRoute(resp.getStatus(), path, req.getQueryString(), method, time);
+        return false;
       }
-      Route route = findRoute(path, httpMethod);
-      if (route != null) {
-        Map<String, String> pathParams = route.checkRoute(path).get();
-        ApiResponse<?> response = route.invoke(
-            pathParams, query, body,
-            filePart.stream()
-                .map(part -> {
+      if (match == null && BatchHandler.isBatch(path, method)) {
+        String summary = batch.handle(req, resp, maxBodySize);
+        finish(resp);
+        logRoute(resp.getStatus(), path + " [" + summary + "]", req.getQueryString(), method, time);
+        return false;
+      }
+      if (ResponseCache.sendCached(resp) || RequestCoalescer.sendShared(resp)) {
+        try {
+          finish(resp);
+        } finally {
+          metered.end();
+          logRoute(resp.getStatus(), path, req.getQueryString(), method, time);
+        }
+        return false;
+      }
+      ConcurrencyLimiter limiter = match == null ? null : match.getRoute().getConcurrencyLimiter();
+      long permit = limiter == null ? 0 : limiter.acquire();
+      if (permit < 0) {
+        writeMessage(resp, 503, "Service unavailable!");
+      } else if (match != null && match.getRoute().isAsync()) {
+        AsyncContext context = async != null ? async : req.startAsync();
+        context.setTimeout(0);
+        // The body and the permit are kept until both the route method has
+        // finished and the response is written, as a timed out method may still
+        // be using them
+        AtomicInteger pending = new AtomicInteger(2);
+        Runnable release = () -> {
+          if (pending.decrementAndGet() == 0) {
+            request.close();
+            if (limiter != null)
+              limiter.release(permit, match.getRoute().getLatencyBaseline());
+          }
+        };
+        try {
+          match.getRoute().invokeAsync(match, request, release)
+              .whenComplete((response, error) -> {
+                boolean isStreaming = false;
+                try {
+                  if (error != null)
+                    writeError(resp, error);
+                  else if (!(response instanceof StreamResponse))
+                    writeResponse(req, resp, response);
+                  else if (isHead)
+                    ((StreamResponse) response).discard(resp);
+                  else {
+                    RequestCoalescer.abandon(resp);
+                    isStreaming = openStream(req, resp, (StreamResponse) response, context);
+                  }
+                  if (!isStreaming)
+                    finish(resp);
+                } catch (Exception e) {
+                  // As on the synchronous path, the error is written and the
+                  // wrappers are finished, so the waiting requests are released
+                  markFailed(resp);
+                  try {
+                    writeError(resp, e);
+                  } catch (Exception writeFailure) {
+                    Constants.context.log(writeFailure);
+                  }
                   try {
-                    return new com.vnexos.sema.loader.Part(part);
-                  } catch (IOException e) {
-                    throw new UncheckedIOException(e);
+                    finish(resp);
+                  } catch (Exception finishFailure) {
+                    Constants.context.log(finishFailure);
+                    RequestCoalescer.abandon(resp);
                   }
-                })
-                .collect(Collectors.toList()),
-            headers);
-        writeResponse(resp, response);
+                } finally {
+                  release.run();
+                  // A stream is recorded when it is closed, with all of its bytes
+                  if (isStreaming)
+                    ((StreamResponse) response).onClose(metered::end);
+                  else
+                    metered.end();
+                  logRoute(resp.getStatus(), path, req.getQueryString(), method, time);
+                  if (!isStreaming)
+                    context.complete();
+                }
+              });
+        } catch (ApiException e) {
+          request.close();
+          if (limiter != null)
+            limiter.release(permit, match.getRoute().getLatencyBaseline());
+          try {
+            writeError(resp, e);
+            finish(resp);
+          } finally {
+            metered.end();
+            logRoute(resp.getStatus(), path, req.getQueryString(), method, time);
+            context.complete();
+          }
+        }
+        return true;
+      } else if (match != null) {
+        try (request) {
+          ApiResponse<?> response = match.getRoute().invoke(match, request);
+          if (!(response instanceof StreamResponse)) {
+            writeResponse(req, resp, response);
+          } else if (isHead) {
+            ((StreamResponse) response).discard(resp);
+          } else {
+            RequestCoalescer.abandon(resp);
+            if (openStream(req, resp, (StreamResponse) response, async)) {
+              // A stream is recorded when it is closed, with all of its bytes
+              ((StreamResponse) response).onClose(metered::end);
+              logRoute(resp.getStatus(), path, req.getQueryString(), method, time);
+              return true;
+            }
+          }
+        } finally {
+          if (limiter != null)
+            limiter.release(permit, match.getRoute().getLatencyBaseline());
+        }
       } else {
-        resp.setStatus(404);
-        resp.getWriter().write("{\"msg\": \"Not found!\"}");
+        EnumSet<HttpMethod> allowed = routes.findMethods(path);
+        if (allowed.isEmpty()) {
+          writeMessage(resp, 404, "Not found!");
+        } else {
+          resp.setHeader("Allow", CorsPolicy.getAllowHeader(allowed));
+          writeMessage(resp, 405, "Method not allowed!");
+        }
       }
-    } catch (ApiException | IOException e) {
-      Constants.context.log(e);
-      resp.setStatus(500);
-      resp.getWriter().write("{\"msg\": \"Internal server error!\"}");
     } catch (Exception e) {
-      resp.setStatus(500);
-      resp.getWriter().write("{\"msg\": \"Internal server error!\"}");
-      Constants.context.log(e);
+      markFailed(resp);
+      writeError(resp, e);
     }
 
-    logRoute(resp.getStatus(), path, req.getQueryString(), method, time);
+    // The request is recorded even if the client has gone away
+    try {
+      finish(resp);
+    } finally {
+      if (metered != null)
+        metered.end();
+      logRoute(resp.getStatus(), path, req.getQueryString(), method, time);
+    }
+    return false;
   }
 }
@@ -1,5 +1,12 @@
 package com.vnexos.sema;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import com.google.gson.JsonNull;
+import com.google.gson.stream.JsonWriter;
+import com.vnexos.sema.loader.json.CborWriter;
 import com.vnexos.sema.util.Mapper;
 
 /**
@@ -35,6 +42,19 @@ public class ApiResponse<T> {
     this.timestamp = System.currentTimeMillis();
   }
 
+  /**
+   * Constructs an instance of ApiResponse with data, status code and content
+   * type, for the responses which are not JSON.
+   * 
+   * @param data        the data of response
+   * @param statusCode  the status code of the response
+   * @param contentType the content type of the response
+   */
+  protected ApiResponse(T data, int statusCode, String contentType) {
+    this(data, statusCode);
+    this.contentType = contentType;
+  }
+
   /**
    * Gets data of response.
    * 
@@ -62,6 +82,38 @@ public class ApiResponse<T> {
     return Constants.gson.toJson(data);
   }
 
+  /**
+   * Writes JSON value of data into the writer without building the whole JSON
+   * in memory.
+   * 
+   * @param writer the writer to write into
+   * @throws IOException if writing to the writer failed
+   */
+  public void writeJsonData(Writer writer) throws IOException {
+    JsonWriter jsonWriter = Constants.gson.newJsonWriter(writer);
+    if (data == null)
+      Constants.gson.toJson(JsonNull.INSTANCE, jsonWriter);
+    else
+      Constants.gson.toJson(data, data.getClass(), jsonWriter);
+    jsonWriter.flush();
+  }
+
+  /**
+   * Writes CBOR value of data into the stream, by the same adapters as the JSON
+   * value.
+   * 
+   * @param out the stream to write into
+   * @throws IOException if writing to the stream failed
+   */
+  public void writeCborData(OutputStream out) throws IOException {
+    JsonWriter cborWriter = new CborWriter(out);
+    if (data == null)
+      Constants.gson.toJson(JsonNull.INSTANCE, cborWriter);
+    else
+      Constants.gson.toJson(data, data.getClass(), cborWriter);
+    cborWriter.flush();
+  }
+
   /**
    * Gets byte array value of data
    * 
@@ -10,11 +10,13 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.lang.reflect.InvocationTargetException;
+import java.sql.SQLException;
 
 import com.vnexos.sema.context.ServerContext;
 import com.vnexos.sema.database.Database;
 import com.vnexos.sema.loader.Loader;
 import com.vnexos.sema.util.PrivateServiceConstructor;
+import com.vnexos.sema.util.format.FormatException;
 import com.vnexos.sema.util.logger.LoggerBuilder;
 
 import jakarta.servlet.ServletContext;
@@ -72,12 +74,23 @@ public class AppInitializer implements ServletContextListener {
    */
   public static void initContext(ServletContext servletContext) throws NoSuchMethodException, SecurityException,
       InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+    File file = new File(servletContext.getRealPath(""));
+    initContext(file.getParent());
+  }
+
+  /**
+   * Initializes the context with the folder of the config file and modules,
+   * when there is no servlet container.
+   * 
+   * @param path the path of the folder
+   */
+  public static void initContext(String path) throws NoSuchMethodException, SecurityException,
+      InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException {
     Constants.context = PrivateServiceConstructor.createInstance(
         ServerContext.class,
         PrivateServiceConstructor.createClassTypes(),
         PrivateServiceConstructor.createObjects());
-    File file = new File(servletContext.getRealPath(""));
-    Constants.context.setPath(file.getParent());
+    Constants.context.setPath(path);
   }
 
   /**
@@ -116,33 +129,53 @@ public class AppInitializer implements ServletContextListener {
   public void contextInitialized(ServletContextEvent sce) {
     try {
       initContext(sce.getServletContext());
-      loadProps();
-      Constants.context.setLogger(
-          LoggerBuilder
-              .init()
-              .setPrefix(buildPrefix())
-              .setPostfix(buildPostfix())
-              .build());
-
-      PrivateServiceConstructor.invokeFunction(
-          Database.class,
-          "init", null,
-          PrivateServiceConstructor.createClassTypes(),
-          PrivateServiceConstructor.createObjects());
-
-      Loader.init();
-      Loader.loadPlugins();
-      Constants.context.info("Server started successfully!!!");
+      start();
     } catch (Exception e) {
       Constants.context.log(e);
     }
   }
 
+  /**
+   * Loads the config, the database and the modules. The context must have been
+   * initialized.
+   * 
+   * @throws IOException                  if the config file cannot be loaded
+   * @throws FormatException              if the format of the logger is wrong
+   * @throws ReflectiveOperationException if the database cannot be initialized
+   * @throws SQLException                 if the modules cannot be loaded
+   */
+  public void start() throws IOException, FormatException, ReflectiveOperationException, SQLException {
+    loadProps();
+    Constants.context.setLogger(
+        LoggerBuilder
+            .init()
+            .setPrefix(buildPrefix())
+            .setPostfix(buildPostfix())
+            .build());
+
+    PrivateServiceConstructor.invokeFunction(
+        Database.class,
+        "init", null,
+        PrivateServiceConstructor.createClassTypes(),
+        PrivateServiceConstructor.createObjects());
+
+    Loader.init();
+    Loader.loadPlugins();
+    Constants.context.info("Server started successfully!!!");
+  }
+
   /**
    * Ending point of the server.
    */
   @Override
   public void contextDestroyed(ServletContextEvent sce) {
+    stop();
+  }
+
+  /**
+   * Unloads the modules and closes the database and the logger.
+   */
+  public void stop() {
     Loader.unloadPlugins();
     Database.shutdown();
     Constants.context.info("Server stopped!");
@@ -0,0 +1,400 @@
+package com.vnexos.sema;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+import com.vnexos.sema.http.ConcurrencyLimiter;
+import com.vnexos.sema.http.RateLimiter;
+import com.vnexos.sema.http.RouteMetrics;
+import com.vnexos.sema.loader.ApiException;
+import com.vnexos.sema.loader.HttpMethod;
+import com.vnexos.sema.loader.RequestBody;
+import com.vnexos.sema.loader.RequestView;
+import com.vnexos.sema.loader.Route;
+import com.vnexos.sema.loader.RouteMatch;
+import com.vnexos.sema.loader.RouteTable;
+import com.vnexos.sema.util.StringUtils;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Handles the batch endpoint, which runs many route calls in a single
+ * request.
+ *
+ * <p>
+ * The body is a JSON array of calls, each with a {@code method}, a
+ * {@code path}, and optionally a {@code query}, a {@code body} and
+ * {@code headers} which are added to the headers of the batch request. The
+ * response is an array with the {@code status} and the {@code body} of each
+ * call, in the same order. With the {@code parallel=true} query, the calls are
+ * run at the same time on virtual threads, at most {@code batch.max-parallel}
+ * of them for the whole server.
+ *
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * POST /api/v1/batch?parallel=true
+ * [
+ *   { "method": "GET", "path": "/api/v1/users/me" },
+ *   { "method": "GET", "path": "/api/v1/settings", "query": { "lang": "vi" } }
+ * ]
+ * </pre>
+ *
+ * @author Trần Việt Đăng Quang
+ */
+class BatchHandler {
+  private static final String path;
+  private static final int maxSize;
+  private static final Semaphore permits;
+  private static final ExecutorService executor;
+
+  static {
+    String name = Constants.getString("batch.path", "batch");
+    path = name.isBlank() ? "" : name.startsWith("/")
+        ? name
+        : Route.join(Constants.getString("module.api-prefix", "/"), name);
+    maxSize = Math.max(1, Constants.getInteger("batch.max-size", 20));
+    permits = new Semaphore(Math.max(1, Constants.getInteger("batch.max-parallel", 16)));
+    executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("sema-batch-", 0).factory());
+  }
+
+  private final RouteTable routes;
+
+  /**
+   * Constructs a handler of batches.
+   *
+   * @param routes the table to find the routes of the calls in
+   */
+  BatchHandler(RouteTable routes) {
+    this.routes = routes;
+  }
+
+  /**
+   * Checks if the request is sent to the batch endpoint.
+   *
+   * @param path   the path of request
+   * @param method the method of request
+   * @return true if the request is a batch, false otherwise
+   */
+  static boolean isBatch(String path, String method) {
+    return !BatchHandler.path.isEmpty() && BatchHandler.path.equals(path) && method.equals("POST");
+  }
+
+  /**
+   * Runs the calls of a batch and writes their results as the response.
+   *
+   * @param req         the request of server
+   * @param resp        the response of server
+   * @param maxBodySize the maximum size of the body in bytes
+   * @return the summary of the batch for the log
+   * @throws ApiException if the batch is invalid
+   * @throws IOException  if the response cannot be written
+   */
+  String handle(HttpServletRequest req, HttpServletResponse resp, long maxBodySize)
+      throws ApiException, IOException {
+    JsonArray entries;
+    try (RequestBody body = new RequestBody(req, maxBodySize)) {
+      JsonElement json = JsonParser.parseString(body.getContent());
+      if (!json.isJsonArray())
+        throw new ApiException("Batch must be a JSON array!", 400);
+      entries = json.getAsJsonArray();
+    } catch (JsonParseException e) {
+      throw new ApiException("Batch must be a JSON array!", 400);
+    }
+    if (entries.size() > maxSize)
+      throw new ApiException("Batch must have at most " + maxSize + " calls!", 413);
+
+    // The request is only read here, the calls may run on other threads
+    Map<String, String> headers = copyHeaders(req);
+    List<Call> calls = new ArrayList<>(entries.size());
+    for (JsonElement entry : entries)
+      calls.add(prepare(req, entry, headers));
+
+    String parallel = StringUtils.queryToMap(req.getQueryString()).get("parallel");
+    if ("true".equals(parallel) && calls.size() > 1)
+      runParallel(calls);
+    else
+      for (Call call : calls)
+        call.run();
+
+    int failed = 0;
+    resp.setStatus(200);
+    resp.setContentType("application/json");
+    resp.setCharacterEncoding("UTF-8");
+    JsonWriter writer = Constants.gson.newJsonWriter(
+        new BufferedWriter(new OutputStreamWriter(resp.getOutputStream(), StandardCharsets.UTF_8)));
+    writer.beginArray();
+    for (Call call : calls) {
+      if (call.status >= 400)
+        failed++;
+      writer.beginObject();
+      writer.name("status").value(call.status);
+      writer.name("body");
+      Constants.gson.toJson(call.body, writer);
+      writer.endObject();
+    }
+    writer.endArray();
+    writer.flush();
+    return calls.size() + " calls, " + failed + " failed";
+  }
+
+  /**
+   * Runs the calls on virtual threads, waiting for a place when too many calls
+   * are running.
+   *
+   * @param calls the calls to run
+   * @throws ApiException if the server is stopping
+   */
+  private static void runParallel(List<Call> calls) throws ApiException {
+    List<Future<?>> futures = new ArrayList<>(calls.size());
+    try {
+      for (Call call : calls) {
+        permits.acquire();
+        try {
+          futures.add(executor.submit(() -> {
+            try {
+              call.run();
+            } finally {
+              permits.release();
+            }
+          }));
+        } catch (RuntimeException e) {
+          permits.release();
+          throw e;
+        }
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).get();
+        } catch (ExecutionException e) {
+          // Only the call which has failed is answered with an error
+          Constants.context.log(e);
+          calls.get(i).fail(500, "Internal server error!");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ApiException("Batch was interrupted", 503, e);
+    }
+  }
+
+  /**
+   * Finds the route of a call and checks its rate limit. Everything which
+   * reads the batch request is done here, on the thread of the request.
+   *
+   * @param req     the request of server
+   * @param element the call in JSON
+   * @param headers the headers of the batch request
+   * @return the call to run
+   */
+  private Call prepare(HttpServletRequest req, JsonElement element, Map<String, String> headers) {
+    Call call = new Call();
+    if (!element.isJsonObject())
+      return call.fail(400, "Call must be a JSON object!");
+    JsonObject entry = element.getAsJsonObject();
+
+    String target = getString(entry.get("path"));
+    if (target == null || !target.startsWith("/"))
+      return call.fail(400, "Path is missing!");
+    String method = getString(entry.get("method"));
+    HttpMethod httpMethod = HttpMethod.of(method == null ? "GET" : method.toUpperCase(Locale.ROOT));
+
+    Map<String, String> query = new HashMap<>();
+    int mark = target.indexOf('?');
+    if (mark >= 0) {
+      query.putAll(StringUtils.queryToMap(target.substring(mark + 1)));
+      target = target.substring(0, mark);
+    }
+    JsonElement queryElement = entry.get("query");
+    if (queryElement != null && queryElement.isJsonObject())
+      for (Map.Entry<String, JsonElement> item : queryElement.getAsJsonObject().entrySet())
+        query.put(item.getKey(), getString(item.getValue()));
+    else if (queryElement != null && !queryElement.isJsonNull())
+      query.putAll(StringUtils.queryToMap(getString(queryElement)));
+
+    call.match = httpMethod == null ? null : routes.find(target, httpMethod);
+    if (call.match == null)
+      return call.fail(404, "Not found!");
+    RateLimiter limiter = call.match.getRoute().getRateLimiter();
+    if (limiter != null && limiter.acquire(req) > 0)
+      return call.fail(429, "Too many requests!");
+
+    Map<String, String> callHeaders = headers;
+    JsonElement headersElement = entry.get("headers");
+    if (headersElement != null && headersElement.isJsonObject()) {
+      callHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      callHeaders.putAll(headers);
+      for (Map.Entry<String, JsonElement> item : headersElement.getAsJsonObject().entrySet())
+        callHeaders.put(item.getKey(), getString(item.getValue()));
+    }
+
+    JsonElement bodyElement = entry.get("body");
+    String body = bodyElement == null || bodyElement.isJsonNull() ? "" : getString(bodyElement);
+    call.request = new RequestView(query, new RequestBody(body, null), callHeaders, req.getUserPrincipal());
+    return call;
+  }
+
+  /**
+   * Copies the headers of the batch request, without the ones which describe
+   * its body.
+   *
+   * @param req the request of server
+   * @return the map of headers, whose names are not case sensitive
+   */
+  private static Map<String, String> copyHeaders(HttpServletRequest req) {
+    Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    Enumeration<String> names = req.getHeaderNames();
+    while (names != null && names.hasMoreElements()) {
+      String name = names.nextElement();
+      headers.put(name, req.getHeader(name));
+    }
+    headers.remove("Content-Length");
+    headers.remove("Content-Type");
+    return headers;
+  }
+
+  /**
+   * Gets a JSON value as a string. A JSON string is returned without quotes,
+   * other values are returned in JSON.
+   *
+   * @param element the JSON value
+   * @return the string, null if the value is missing
+   */
+  private static String getString(JsonElement element) {
+    if (element == null || element.isJsonNull())
+      return null;
+    if (element.isJsonPrimitive())
+      return element.getAsString();
+    return element.toString();
+  }
+
+  /**
+   * Represents a call of the batch and its result.
+   */
+  private static class Call {
+    private RouteMatch match;
+    private RequestView request;
+    private int status;
+    private JsonElement body;
+
+    /**
+     * Sets the result of the call to an error message.
+     *
+     * @param status  the status code of the call
+     * @param message the message of the error
+     * @return the call
+     */
+    Call fail(int status, String message) {
+      JsonObject json = new JsonObject();
+      json.addProperty("msg", message);
+      this.status = status;
+      this.body = json;
+      this.request = null;
+      return this;
+    }
+
+    /**
+     * Invokes the route of the call, unless the call has already failed. The
+     * call is recorded into the metrics of its route like a single request,
+     * whose body is written within the batch.
+     */
+    void run() {
+      if (request == null)
+        return;
+      Route route = match.getRoute();
+      RouteMetrics metrics = route.getMetrics();
+      long start = System.nanoTime();
+      metrics.begin(-1);
+      try {
+        invoke(route);
+      } finally {
+        // The status is not set if the route has thrown an error
+        metrics.end(status == 0 ? 500 : status, 0, System.nanoTime() - start);
+      }
+    }
+
+    /**
+     * Invokes the route of the call within the concurrency limit of the route.
+     *
+     * @param route the route of the call
+     */
+    private void invoke(Route route) {
+      ConcurrencyLimiter limiter = route.getConcurrencyLimiter();
+      long permit = limiter == null ? 0 : limiter.acquire();
+      if (permit < 0) {
+        fail(503, "Service unavailable!");
+        return;
+      }
+      try (RequestView view = request) {
+        setResponse(route.invoke(match, view));
+      } catch (ApiException e) {
+        if (e.getStatusCode() == 503) {
+          fail(503, "Service unavailable!");
+        } else if (e.getStatusCode() >= 500) {
+          Constants.context.log(e);
+          fail(e.getStatusCode(), "Internal server error!");
+        } else {
+          fail(e.getStatusCode(), e.getMessage());
+        }
+      } catch (RuntimeException e) {
+        Constants.context.log(e);
+        fail(500, "Internal server error!");
+      } finally {
+        if (limiter != null)
+          limiter.release(permit, route.getLatencyBaseline());
+      }
+    }
+
+    /**
+     * Sets the result of the call from the response of the route method. JSON
+     * is kept as it is, text is kept as a string and other data is encoded in
+     * Base64.
+     *
+     * @param response the response of the route method
+     */
+    private void setResponse(ApiResponse<?> response) {
+      if (response == null) {
+        status = 204;
+        body = JsonNull.INSTANCE;
+      } else if (response instanceof FileResponse || response instanceof StreamResponse) {
+        if (response instanceof StreamResponse)
+          ((StreamResponse) response).close();
+        fail(400, "File and stream responses cannot be in a batch!");
+      } else {
+        status = response.getStatusCode();
+        String contentType = response.getContentType();
+        if (contentType.startsWith("application/json"))
+          body = Constants.gson.toJsonTree(response.getData());
+        else if (contentType.startsWith("text/"))
+          body = new JsonPrimitive(String.valueOf(response.getData()));
+        else
+          body = new JsonPrimitive(Base64.getEncoder().encodeToString(response.getBinaryData()));
+      }
+    }
+  }
+}
@@ -37,6 +37,20 @@ public class Constants {
     return Integer.parseInt(props.getProperty(str));
   }
 
+  public static String getString(String str, String defaultValue) {
+    return props.getProperty(str, defaultValue);
+  }
+
+  public static Integer getInteger(String str, int defaultValue) {
+    String value = props.getProperty(str);
+    return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  public static Long getLong(String str, long defaultValue) {
+    String value = props.getProperty(str);
+    return value == null || value.isBlank() ? defaultValue : Long.parseLong(value.trim());
+  }
+
   public static ServerContext context;
 
   public static final Gson gson = new GsonBuilder()
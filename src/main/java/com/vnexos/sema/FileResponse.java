@@ -0,0 +1,103 @@
+package com.vnexos.sema;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Represents a response whose body is a file. The file is streamed to the
+ * client instead of being loaded into memory, and supports the {@code Range},
+ * {@code Last-Modified} and {@code If-Modified-Since} headers.
+ *
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * &#64;HttpGet("/reports/{name}")
+ * public ApiResponse&lt;Path&gt; getReport(&#64;FromRoute String name) {
+ *   FileResponse response = new FileResponse(Path.of(context.joinPath("reports", name)));
+ *   response.setFileName(name);
+ *   return response;
+ * }
+ * </pre>
+ *
+ * @author Trần Việt Đăng Quang
+ * @see com.vnexos.sema.http.FileTransfer
+ */
+public class FileResponse extends ApiResponse<Path> {
+  private String fileName;
+
+  /**
+   * Constructs a response of a file, whose content type is guessed from the
+   * file.
+   *
+   * @param file the file to send
+   */
+  public FileResponse(Path file) {
+    this(file, guessContentType(file));
+  }
+
+  /**
+   * Constructs a response of a file with the given content type.
+   *
+   * @param file        the file to send
+   * @param contentType the content type of the file
+   */
+  public FileResponse(Path file, String contentType) {
+    super(file, 200, contentType);
+  }
+
+  /**
+   * Guesses the content type of a file from its content or name.
+   *
+   * @param file the file to guess
+   * @return the content type, {@code application/octet-stream} if it is unknown
+   */
+  private static String guessContentType(Path file) {
+    String contentType = null;
+    try {
+      contentType = Files.probeContentType(file);
+    } catch (IOException e) {
+      // Guess from the name of file
+    }
+    if (contentType == null)
+      contentType = URLConnection.guessContentTypeFromName(file.getFileName().toString());
+    return contentType != null ? contentType : "application/octet-stream";
+  }
+
+  /**
+   * Gets the name of the file when it is downloaded.
+   *
+   * @return the name of file, null if the file is shown in the browser
+   */
+  public String getFileName() {
+    return fileName;
+  }
+
+  /**
+   * Sets the name of the file when it is downloaded. If it is set, the browser
+   * saves the file instead of showing it.
+   *
+   * @param fileName the name of file to set
+   */
+  public void setFileName(String fileName) {
+    this.fileName = fileName;
+  }
+
+  /**
+   * Reads the whole file. This should only be used for small files, as the
+   * file is normally streamed.
+   *
+   * @return the content of the file
+   */
+  @Override
+  public byte[] getBinaryData() {
+    try {
+      return Files.readAllBytes(getData());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
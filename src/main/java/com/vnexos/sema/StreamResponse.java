@@ -0,0 +1,374 @@
+package com.vnexos.sema;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Represents a response which keeps the connection open and sends events to
+ * the client, as Server-Sent Events or newline-delimited JSON.
+ *
+ * <p>
+ * The route returns the response right away and keeps it to send events
+ * later, from any thread. The events are written without blocking, so an idle
+ * connection holds no thread. If the client reads slower than the events are
+ * sent, at most {@code stream.max-pending} events are kept for it and the
+ * others are dropped.
+ *
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * &#64;HttpGet("/progress")
+ * public ApiResponse&lt;Void&gt; getProgress() {
+ *   StreamResponse stream = new StreamResponse(StreamResponse.Format.SSE);
+ *   subscribers.add(stream);
+ *   stream.onClose(() -&gt; subscribers.remove(stream));
+ *   return stream;
+ * }
+ * </pre>
+ *
+ * @author Trần Việt Đăng Quang
+ */
+public class StreamResponse extends ApiResponse<Void> {
+  private static final byte[] SSE_HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] NDJSON_HEARTBEAT = "\n".getBytes(StandardCharsets.UTF_8);
+
+  private static final int maxPending;
+  private static final long heartbeat;
+  private static final Set<StreamResponse> openStreams = ConcurrentHashMap.newKeySet();
+  private static final ScheduledExecutorService scheduler;
+
+  static {
+    maxPending = Math.max(1, Constants.getInteger("stream.max-pending", 256));
+    heartbeat = Constants.getInteger("stream.heartbeat", 15000);
+    scheduler = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().daemon().name("sema-stream-heartbeat").factory());
+    if (heartbeat > 0)
+      scheduler.scheduleWithFixedDelay(StreamResponse::sendHeartbeats, heartbeat, heartbeat, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * The formats of the events.
+   */
+  public enum Format {
+    /**
+     * Server-Sent Events, with the {@code text/event-stream} content type.
+     */
+    SSE("text/event-stream;charset=UTF-8"),
+    /**
+     * A JSON value on each line, with the {@code application/x-ndjson} content
+     * type.
+     */
+    NDJSON("application/x-ndjson;charset=UTF-8");
+
+    private final String contentType;
+
+    Format(String contentType) {
+      this.contentType = contentType;
+    }
+  }
+
+  private final Format format;
+  private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+  private volatile boolean isClosing = false;
+  private volatile boolean isClosed = false;
+  private volatile long lastWrite;
+  private AsyncContext context;
+  private ServletOutputStream output;
+
+  /**
+   * Constructs a stream of events.
+   *
+   * @param format the format of the events
+   */
+  public StreamResponse(Format format) {
+    super(null, 200, format.contentType);
+    this.format = format;
+  }
+
+  /**
+   * Sends an event with the given data. Strings are sent as they are, other
+   * objects are sent in JSON.
+   *
+   * @param data the data of the event
+   * @return true if the event is sent or waiting to be sent, false if the
+   *         stream is closed or the client is too slow
+   */
+  public boolean send(Object data) {
+    return send(null, data);
+  }
+
+  /**
+   * Sends an event with a name, which is only used by the Server-Sent Events
+   * format.
+   *
+   * @param event the name of the event, null for the default name
+   * @param data  the data of the event
+   * @return true if the event is sent or waiting to be sent, false if the
+   *         stream is closed or the client is too slow
+   */
+  public boolean send(String event, Object data) {
+    if (isClosing)
+      return false;
+    return enqueue(encode(event, data)) && drain();
+  }
+
+  /**
+   * Closes the stream after the waiting events are sent.
+   */
+  public void close() {
+    isClosing = true;
+    drain();
+  }
+
+  /**
+   * Checks if the stream can still send events.
+   *
+   * @return true if the stream is open, false otherwise
+   */
+  public boolean isOpen() {
+    return !isClosing;
+  }
+
+  /**
+   * Gets the number of events waiting to be sent.
+   *
+   * @return the number of waiting events
+   */
+  public int getPending() {
+    return pendingCount.get();
+  }
+
+  /**
+   * Adds an action which is run when the stream is closed, by the route or by
+   * the client.
+   *
+   * @param listener the action to run
+   */
+  public void onClose(Runnable listener) {
+    // Checked under the lock of terminate, so the listener runs exactly once
+    synchronized (this) {
+      if (!isClosed) {
+        closeListeners.add(listener);
+        return;
+      }
+    }
+    listener.run();
+  }
+
+  /**
+   * Starts sending events to the client.
+   *
+   * @param context the context of the suspended request
+   * @param resp    the response of the container
+   * @throws IOException if the output stream cannot be get
+   */
+  void open(AsyncContext context, HttpServletResponse resp) throws IOException {
+    resp.setStatus(getStatusCode());
+    resp.setContentType(getContentType());
+    resp.setHeader("Cache-Control", "no-cache");
+    resp.setHeader("X-Accel-Buffering", "no");
+
+    Listener listener = new Listener();
+    context.setTimeout(0);
+    context.addListener(listener);
+    synchronized (this) {
+      // The stream cannot be checked before it is non-blocking
+      ServletOutputStream stream = resp.getOutputStream();
+      stream.setWriteListener(listener);
+      this.context = context;
+      this.output = stream;
+      lastWrite = System.currentTimeMillis();
+    }
+    openStreams.add(this);
+    drain();
+  }
+
+  /**
+   * Answers a {@code HEAD} request with the headers of the stream, then closes
+   * the stream without sending any event.
+   *
+   * @param resp the response of server
+   */
+  void discard(HttpServletResponse resp) {
+    resp.setStatus(getStatusCode());
+    resp.setContentType(getContentType());
+    resp.setHeader("Cache-Control", "no-cache");
+    terminate(false);
+  }
+
+  /**
+   * Converts an event into the bytes of its format.
+   *
+   * @param event the name of the event
+   * @param data  the data of the event
+   * @return the bytes of the event
+   */
+  private byte[] encode(String event, Object data) {
+    String text = data instanceof String && format == Format.SSE ? (String) data : Constants.gson.toJson(data);
+    StringBuilder frame = new StringBuilder(text.length() + 16);
+    if (format == Format.NDJSON) {
+      frame.append(text).append('\n');
+    } else {
+      if (event != null)
+        frame.append("event: ").append(event).append('\n');
+      for (String line : text.split("\r\n|\r|\n", -1))
+        frame.append("data: ").append(line).append('\n');
+      frame.append('\n');
+    }
+    return frame.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Adds the bytes of an event to the waiting ones.
+   *
+   * @param frame the bytes to add
+   * @return true if the bytes are added, false if there are too many waiting
+   *         events
+   */
+  private boolean enqueue(byte[] frame) {
+    if (pendingCount.incrementAndGet() > maxPending) {
+      pendingCount.decrementAndGet();
+      return false;
+    }
+    pending.add(frame);
+    return true;
+  }
+
+  /**
+   * Writes the waiting events while the client can receive them. If it cannot,
+   * the container calls {@code onWritePossible} later to continue.
+   *
+   * @return false if the stream is closed, true otherwise
+   */
+  private synchronized boolean drain() {
+    if (isClosed)
+      return false;
+    if (output == null)
+      return true;
+
+    try {
+      boolean isWritten = false;
+      byte[] frame;
+      while (output.isReady() && (frame = pending.poll()) != null) {
+        pendingCount.decrementAndGet();
+        output.write(frame);
+        isWritten = true;
+      }
+      if (!output.isReady())
+        return true;
+      if (isWritten) {
+        output.flush();
+        lastWrite = System.currentTimeMillis();
+      }
+      if (isClosing && pending.isEmpty() && output.isReady())
+        terminate(true);
+    } catch (IOException | IllegalStateException e) {
+      terminate(false);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Sends a heartbeat to the idle streams, which also finds the clients which
+   * have gone away.
+   */
+  private static void sendHeartbeats() {
+    long now = System.currentTimeMillis();
+    for (StreamResponse stream : openStreams) {
+      if (now - stream.lastWrite >= heartbeat && stream.pendingCount.get() == 0) {
+        stream.enqueue(stream.format == Format.SSE ? SSE_HEARTBEAT : NDJSON_HEARTBEAT);
+        stream.drain();
+      }
+    }
+  }
+
+  /**
+   * Closes the connection and runs the close listeners. The listeners are run
+   * without holding the lock, so they cannot block the stream.
+   *
+   * @param shouldComplete true to complete the request, false if the
+   *                       connection has failed
+   */
+  private void terminate(boolean shouldComplete) {
+    synchronized (this) {
+      if (isClosed)
+        return;
+      isClosed = true;
+      isClosing = true;
+      openStreams.remove(this);
+      pending.clear();
+      pendingCount.set(0);
+
+      if (shouldComplete && context != null) {
+        try {
+          context.complete();
+        } catch (IllegalStateException e) {
+          // The request has already been completed
+        }
+      }
+    }
+    for (Runnable listener : closeListeners) {
+      try {
+        listener.run();
+      } catch (RuntimeException e) {
+        Constants.context.log(e);
+      }
+    }
+  }
+
+  /**
+   * Listens to the connection to write events and to find when it is closed.
+   */
+  private class Listener implements WriteListener, AsyncListener {
+    @Override
+    public void onWritePossible() {
+      drain();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      terminate(false);
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      terminate(false);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      terminate(true);
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      terminate(false);
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      // Nothing to do
+    }
+  }
+}
@@ -6,7 +6,9 @@ package com.vnexos.sema.context;
 
 import java.nio.file.Path;
 
+import com.vnexos.sema.http.ResponseCache;
 import com.vnexos.sema.loader.Module;
+import com.vnexos.sema.loader.Route;
 import com.vnexos.sema.util.logger.LoggerFormatDriver;
 
 /**
@@ -124,4 +126,37 @@ public class ModuleServerContext extends ServerContext {
   public String joinPath(String... path) {
     return Path.of(getModuleFolder(), path).toString();
   }
+
+  /**
+   * Removes all cached responses of the routes in this module. This should be
+   * called when the data of the module changes.
+   * 
+   * @return the number of removed responses
+   * @see com.vnexos.sema.loader.annotations.Cacheable
+   */
+  public int evictCache() {
+    return ResponseCache.evict(this::isModuleRoute);
+  }
+
+  /**
+   * Removes all cached responses of a route in this module.
+   * 
+   * @param route the path of the route as it is declared, such as
+   *              {@code /api/languages/{id}}
+   * @return the number of removed responses
+   * @see com.vnexos.sema.loader.annotations.Cacheable
+   */
+  public int evictCache(String route) {
+    return ResponseCache.evict(r -> r.getRoute().equals(route) && isModuleRoute(r));
+  }
+
+  /**
+   * Checks if the route is handled by a controller of this module.
+   * 
+   * @param route the route to check
+   * @return true if the route belongs to this module, false otherwise
+   */
+  private boolean isModuleRoute(Route route) {
+    return module.containsClass(route.getMethod().getDeclaringClass().getName());
+  }
 }
@@ -6,6 +6,7 @@ import java.sql.*;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
@@ -30,7 +31,7 @@ public class ConnectionPool implements DataSource {
   private final String jdbcUrl;
   private final Properties props;
   private final int maxSize;
-  private volatile int currentSize = 0;
+  private final AtomicInteger currentSize = new AtomicInteger(0);
   private PrintWriter logWriter = new PrintWriter(System.out);
   private int loginTimeout = 30;
 
@@ -67,11 +68,12 @@ public class ConnectionPool implements DataSource {
         return wrap(conn);
       }
 
-      synchronized (this) {
-        if (currentSize < maxSize) {
-          Connection newConn = DriverManager.getConnection(jdbcUrl, props);
-          currentSize++;
-          return wrap(newConn);
+      if (reserve()) {
+        try {
+          return wrap(DriverManager.getConnection(jdbcUrl, props));
+        } catch (SQLException e) {
+          currentSize.decrementAndGet();
+          throw e;
         }
       }
 
@@ -94,6 +96,23 @@ public class ConnectionPool implements DataSource {
     }
   }
 
+  /**
+   * Reserves a place for a new connection if the pool hasn't reached its maximum
+   * size. No lock is held, so the thread is never pinned while the connection
+   * is being opened.
+   * 
+   * @return true if a place is reserved, false if the pool is full
+   */
+  private boolean reserve() {
+    int size;
+    do {
+      size = currentSize.get();
+      if (size >= maxSize)
+        return false;
+    } while (!currentSize.compareAndSet(size, size + 1));
+    return true;
+  }
+
   /**
    * Gets a connection using specific credentials, bypassing the connection pool.
    * This creates a new connection each time and doesn't pool it.
@@ -161,21 +180,15 @@ public class ConnectionPool implements DataSource {
     try {
       if (isValid(conn)) {
         if (!pool.offer(conn)) {
-          synchronized (this) {
-            currentSize--;
-          }
+          currentSize.decrementAndGet();
           closeSilently(conn);
         }
       } else {
-        synchronized (this) {
-          currentSize--;
-        }
+        currentSize.decrementAndGet();
         closeSilently(conn);
       }
     } catch (Exception e) {
-      synchronized (this) {
-        currentSize--;
-      }
+      currentSize.decrementAndGet();
       closeSilently(conn);
     }
   }
@@ -189,7 +202,7 @@ public class ConnectionPool implements DataSource {
       closeSilently(conn);
     }
     pool.clear();
-    currentSize = 0;
+    currentSize.set(0);
   }
 
   @Override
@@ -34,6 +34,7 @@ import com.vnexos.sema.database.engine.SqlServerEngine;
 import com.vnexos.sema.loader.json.LocalDateAdapter;
 import com.vnexos.sema.loader.json.LocalDateTimeAdapter;
 import com.vnexos.sema.loader.json.LocalTimeAdapter;
+import com.vnexos.sema.loader.json.ReorderFactory;
 import com.vnexos.sema.util.ClassUtils;
 import com.vnexos.sema.util.LibraryLoaderUtil;
 import com.vnexos.sema.util.PrivateServiceConstructor;
@@ -82,7 +83,9 @@ public class Database {
 
   /**
    * Pre-configured Gson instance with custom type adapters for Java time classes.
-   * Supports serialization/deserialization of:
+   * The entities are written by the adapters of {@link ReorderFactory}, which
+   * are shared with the other Gson instances. Supports
+   * serialization/deserialization of:
    * <ul>
    * <li>{@link LocalDateTime}</li>
    * <li>{@link LocalDate}</li>
@@ -93,6 +96,7 @@ public class Database {
       .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
       .registerTypeAdapter(LocalDate.class, new LocalDateAdapter())
       .registerTypeAdapter(LocalTime.class, new LocalTimeAdapter())
+      .registerTypeAdapterFactory(new ReorderFactory())
       .create();
 
   /**
@@ -303,10 +307,12 @@ public class Database {
   }
 
   /**
-   * Shuts down the connection pool, closing all active connections.
+   * Shuts down the connection pool, closing all active connections. Nothing is
+   * done if the database has not been initialized.
    */
   public static void shutdown() {
-    pool.shutdown();
+    if (pool != null)
+      pool.shutdown();
   }
 
   /**
@@ -0,0 +1,52 @@
+package com.vnexos.sema.http;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contains the number of hits and misses of the response cache for a route.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see ResponseCache
+ */
+public class CacheStats {
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Constructs empty stats.
+   */
+  CacheStats() {
+  }
+
+  /**
+   * Gets the number of requests answered from the cache.
+   *
+   * @return the number of hits
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Gets the number of requests which invoked the route method.
+   *
+   * @return the number of misses
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Counts a hit.
+   */
+  void hit() {
+    hits.increment();
+  }
+
+  /**
+   * Counts a miss.
+   */
+  void miss() {
+    misses.increment();
+  }
+}
@@ -0,0 +1,215 @@
+package com.vnexos.sema.http;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import com.vnexos.sema.loader.Route;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A specialized {@code HttpServletResponseWrapper} that copies the body into
+ * the response cache while it is being sent.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see ResponseCache
+ */
+public class CachingResponse extends HttpServletResponseWrapper implements FinishableResponse {
+  private final String key;
+  private final Route route;
+  private final long ttl;
+  private final CacheStats stats;
+  private final CopyStream stream;
+  private PrintWriter writer;
+  private boolean isDone = false;
+  private volatile boolean isFailed = false;
+
+  /**
+   * Constructs a cached response.
+   *
+   * @param response     the response of server
+   * @param key          the cache key
+   * @param route        the route of the response
+   * @param ttl          the time to live in milliseconds
+   * @param stats        the stats of the route
+   * @param maxEntrySize the maximum size of the body to be kept
+   */
+  CachingResponse(HttpServletResponse response, String key, Route route, long ttl, CacheStats stats,
+      int maxEntrySize) {
+    super(response);
+    this.key = key;
+    this.route = route;
+    this.ttl = ttl;
+    this.stats = stats;
+    this.stream = new CopyStream(maxEntrySize);
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (writer != null)
+      throw new IllegalStateException("getWriter() has already been called");
+    return stream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (writer == null)
+      writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+    return writer;
+  }
+
+  @Override
+  public void resetBuffer() {
+    if (writer != null)
+      writer.flush();
+    stream.count = 0;
+    super.resetBuffer();
+  }
+
+  @Override
+  public void reset() {
+    stream.count = 0;
+    writer = null;
+    super.reset();
+  }
+
+  /**
+   * Sends the response from the cache if it is there.
+   *
+   * @return true if the response has been sent, false otherwise
+   * @throws IOException if the response cannot be written
+   */
+  boolean sendCached() throws IOException {
+    ResponseCache.Entry entry = ResponseCache.get(key);
+    if (entry == null) {
+      stats.miss();
+      return false;
+    }
+    stats.hit();
+    isDone = true;
+
+    HttpServletResponse response = (HttpServletResponse) getResponse();
+    response.setStatus(200);
+    response.setContentType(entry.contentType);
+    ResponseCache.addVary(response, entry.vary);
+    response.setContentLengthLong(entry.body.length);
+    response.getOutputStream().write(entry.body);
+    return true;
+  }
+
+  @Override
+  public void markFailed() {
+    isFailed = true;
+  }
+
+  /**
+   * Keeps the sent body in the cache if the response is successful and has
+   * been written without failure.
+   */
+  @Override
+  public void finish() throws IOException {
+    if (writer != null)
+      writer.flush();
+    if (isDone)
+      return;
+    isDone = true;
+
+    if (!isFailed && getStatus() == 200 && stream.buffer != null) {
+      byte[] body = Arrays.copyOf(stream.buffer, stream.count);
+      ResponseCache.put(key, new ResponseCache.Entry(route, key, getContentType(), ResponseCache.getVary(this),
+          body, System.currentTimeMillis() + ttl));
+    }
+  }
+
+  /**
+   * The output stream that writes to the response and keeps a copy of the
+   * body, until the body is larger than the maximum size.
+   */
+  private class CopyStream extends ServletOutputStream {
+    private final int maxSize;
+    private byte[] buffer = new byte[1024];
+    private int count = 0;
+
+    CopyStream(int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      try {
+        getResponse().getOutputStream().write(b);
+      } catch (IOException | RuntimeException e) {
+        isFailed = true;
+        throw e;
+      }
+      if (ensureCapacity(1))
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      try {
+        getResponse().getOutputStream().write(b, off, len);
+      } catch (IOException | RuntimeException e) {
+        isFailed = true;
+        throw e;
+      }
+      if (ensureCapacity(len)) {
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      try {
+        getResponse().getOutputStream().flush();
+      } catch (IOException | RuntimeException e) {
+        isFailed = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public boolean isReady() {
+      try {
+        return getResponse().getOutputStream().isReady();
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      try {
+        getResponse().getOutputStream().setWriteListener(writeListener);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /**
+     * Grows the buffer to keep more bytes, or drops the copy if the body is
+     * too large to be kept.
+     *
+     * @param length the number of bytes to add
+     * @return true if the bytes can be kept, false otherwise
+     */
+    private boolean ensureCapacity(int length) {
+      if (buffer == null)
+        return false;
+      if (count + length > maxSize) {
+        buffer = null;
+        return false;
+      }
+      if (count + length > buffer.length)
+        buffer = Arrays.copyOf(buffer, Math.min(maxSize, Math.max(buffer.length << 1, count + length)));
+      return true;
+    }
+  }
+}
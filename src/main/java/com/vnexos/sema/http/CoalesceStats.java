@@ -0,0 +1,97 @@
+package com.vnexos.sema.http;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vnexos.sema.http.RequestCoalescer.Unshared;
+
+/**
+ * Contains the number of requests which invoked a coalesced route and the
+ * number of requests which shared their responses.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see RequestCoalescer
+ */
+public class CoalesceStats {
+  private final LongAdder invocations = new LongAdder();
+  private final LongAdder collapsed = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder[] unshared = new LongAdder[Unshared.values().length];
+
+  /**
+   * Constructs empty stats.
+   */
+  CoalesceStats() {
+    for (int i = 0; i < unshared.length; i++)
+      unshared[i] = new LongAdder();
+  }
+
+  /**
+   * Gets the number of requests which invoked the route method for the others.
+   *
+   * @return the number of invocations
+   */
+  public long getInvocations() {
+    return invocations.sum();
+  }
+
+  /**
+   * Gets the number of requests answered with the response of another request.
+   *
+   * @return the number of collapsed requests
+   */
+  public long getCollapsed() {
+    return collapsed.sum();
+  }
+
+  /**
+   * Gets the number of requests which waited longer than the maximum wait, and
+   * invoked the route method by themselves.
+   *
+   * @return the number of timeouts
+   */
+  public long getTimeouts() {
+    return timeouts.sum();
+  }
+
+  /**
+   * Gets the number of requests which waited for an invocation that had no
+   * response to share for the given reason, and invoked the route method by
+   * themselves.
+   *
+   * @param reason the reason why there was no response to share
+   * @return the number of requests
+   */
+  public long getUnshared(Unshared reason) {
+    return unshared[reason.ordinal()].sum();
+  }
+
+  /**
+   * Counts an invocation.
+   */
+  void invoke() {
+    invocations.increment();
+  }
+
+  /**
+   * Counts a collapsed request.
+   */
+  void collapse() {
+    collapsed.increment();
+  }
+
+  /**
+   * Counts a timeout.
+   */
+  void timeout() {
+    timeouts.increment();
+  }
+
+  /**
+   * Counts a request which found no response to share.
+   *
+   * @param reason the reason why there was no response to share
+   */
+  void unshared(Unshared reason) {
+    unshared[reason.ordinal()].increment();
+  }
+}
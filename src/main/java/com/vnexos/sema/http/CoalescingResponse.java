@@ -0,0 +1,269 @@
+package com.vnexos.sema.http;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A specialized {@code HttpServletResponseWrapper} that either waits for the
+ * response of an identical request, or invokes the route method and shares a
+ * copy of its body with the waiting requests.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see RequestCoalescer
+ */
+public class CoalescingResponse extends HttpServletResponseWrapper implements FinishableResponse {
+  private final String key;
+  private final long maxWait;
+  private final CoalesceStats stats;
+  private final int maxSize;
+  private RequestCoalescer.Flight flight;
+  private CopyStream stream;
+  private PrintWriter writer;
+  private volatile boolean isFailed = false;
+
+  /**
+   * Constructs a coalesced response.
+   *
+   * @param response the response of server
+   * @param key      the key of the request
+   * @param maxWait  the time in milliseconds to wait for the shared response
+   * @param stats    the stats of the route
+   * @param maxSize  the maximum size of the body to be shared
+   */
+  CoalescingResponse(HttpServletResponse response, String key, long maxWait, CoalesceStats stats, int maxSize) {
+    super(response);
+    this.key = key;
+    this.maxWait = maxWait;
+    this.stats = stats;
+    this.maxSize = maxSize;
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (flight == null)
+      return super.getOutputStream();
+    if (writer != null)
+      throw new IllegalStateException("getWriter() has already been called");
+    if (stream == null)
+      stream = new CopyStream();
+    return stream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (flight == null)
+      return super.getWriter();
+    if (writer == null) {
+      if (stream == null)
+        stream = new CopyStream();
+      writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+    }
+    return writer;
+  }
+
+  @Override
+  public void resetBuffer() {
+    if (writer != null)
+      writer.flush();
+    if (stream != null)
+      stream.count = 0;
+    super.resetBuffer();
+  }
+
+  @Override
+  public void reset() {
+    if (stream != null)
+      stream.count = 0;
+    writer = null;
+    super.reset();
+  }
+
+  /**
+   * Waits for the response of an identical request and sends it. If there is
+   * none, this request becomes the one which invokes the route method.
+   *
+   * @return true if the response has been sent, false if the route method must
+   *         be invoked
+   * @throws IOException if the response cannot be written
+   */
+  boolean sendShared() throws IOException {
+    RequestCoalescer.Flight created = new RequestCoalescer.Flight();
+    RequestCoalescer.Flight running = RequestCoalescer.join(key, created);
+    if (running == null) {
+      flight = created;
+      stats.invoke();
+      return false;
+    }
+
+    RequestCoalescer.Shared shared;
+    try {
+      shared = running.result.get(maxWait, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      // The invocation is stuck, so the next request must not wait for it
+      RequestCoalescer.leave(key, running);
+      stats.timeout();
+      return false;
+    } catch (ExecutionException e) {
+      // The invocation has failed, this request tries by itself
+      shared = new RequestCoalescer.Shared(RequestCoalescer.Unshared.FAILED);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      shared = new RequestCoalescer.Shared(RequestCoalescer.Unshared.FAILED);
+    }
+    if (shared.reason != null) {
+      stats.unshared(shared.reason);
+      return false;
+    }
+
+    stats.collapse();
+    HttpServletResponse response = (HttpServletResponse) getResponse();
+    response.setStatus(200);
+    response.setContentType(shared.contentType);
+    ResponseCache.addVary(response, shared.vary);
+    response.setContentLengthLong(shared.body.length);
+    response.getOutputStream().write(shared.body);
+    return true;
+  }
+
+  @Override
+  public void markFailed() {
+    isFailed = true;
+  }
+
+  /**
+   * Shares the sent body with the waiting requests if the response is
+   * successful and has been written without failure, and lets the next
+   * request invoke the route method again.
+   */
+  @Override
+  public void finish() throws IOException {
+    if (writer != null)
+      writer.flush();
+    if (flight == null)
+      return;
+
+    RequestCoalescer.Shared shared;
+    if (isFailed)
+      shared = new RequestCoalescer.Shared(RequestCoalescer.Unshared.FAILED);
+    else if (getStatus() != 200)
+      shared = new RequestCoalescer.Shared(RequestCoalescer.Unshared.STATUS);
+    else if (stream == null || stream.buffer == null)
+      shared = new RequestCoalescer.Shared(RequestCoalescer.Unshared.NOT_KEPT);
+    else
+      shared = new RequestCoalescer.Shared(getContentType(), ResponseCache.getVary(this),
+          Arrays.copyOf(stream.buffer, stream.count));
+    complete(shared);
+  }
+
+  /**
+   * Lets the waiting requests invoke the route method by themselves, without
+   * waiting for this response to finish.
+   */
+  void abandon() {
+    if (flight != null)
+      complete(new RequestCoalescer.Shared(RequestCoalescer.Unshared.ABANDONED));
+  }
+
+  /**
+   * Removes the invocation and wakes up the waiting requests.
+   *
+   * @param shared the response to share, or the reason why there is none
+   */
+  private void complete(RequestCoalescer.Shared shared) {
+    RequestCoalescer.leave(key, flight);
+    flight.result.complete(shared);
+    flight = null;
+  }
+
+  /**
+   * The output stream that writes to the response and keeps a copy of the
+   * body, until the body is larger than the maximum size.
+   */
+  private class CopyStream extends ServletOutputStream {
+    private byte[] buffer = new byte[1024];
+    private int count = 0;
+
+    @Override
+    public void write(int b) throws IOException {
+      try {
+        getResponse().getOutputStream().write(b);
+      } catch (IOException | RuntimeException e) {
+        isFailed = true;
+        throw e;
+      }
+      if (ensureCapacity(1))
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      try {
+        getResponse().getOutputStream().write(b, off, len);
+      } catch (IOException | RuntimeException e) {
+        isFailed = true;
+        throw e;
+      }
+      if (ensureCapacity(len)) {
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      try {
+        getResponse().getOutputStream().flush();
+      } catch (IOException | RuntimeException e) {
+        isFailed = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public boolean isReady() {
+      try {
+        return getResponse().getOutputStream().isReady();
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      try {
+        getResponse().getOutputStream().setWriteListener(writeListener);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /**
+     * Grows the buffer to keep more bytes, or drops the copy if the body is
+     * too large to be shared.
+     *
+     * @param length the number of bytes to add
+     * @return true if the bytes can be kept, false otherwise
+     */
+    private boolean ensureCapacity(int length) {
+      if (buffer == null)
+        return false;
+      if (count + length > maxSize) {
+        buffer = null;
+        return false;
+      }
+      if (count + length > buffer.length)
+        buffer = Arrays.copyOf(buffer, Math.min(maxSize, Math.max(buffer.length << 1, count + length)));
+      return true;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package com.vnexos.sema.http;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+import com.vnexos.sema.Constants;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Handles compressing responses with the {@code gzip} or {@code deflate}
+ * encoding.
+ *
+ * <p>
+ * The encoding is chosen from the {@code Accept-Encoding} header of the
+ * request. A response is only compressed when its content type is in the
+ * {@code compression.mime-types} config and its body is larger than the
+ * {@code compression.min-size} config.
+ *
+ * <p>
+ * Creating a {@code Deflater} allocates native memory, so the deflaters are
+ * kept in a bounded pool and reused by all requests.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see CompressionResponse
+ */
+public class Compression {
+  public static final String GZIP = "gzip";
+  public static final String DEFLATE = "deflate";
+
+  private static final boolean enabled;
+  private static final boolean deflateEnabled;
+  private static final int minSize;
+  private static final int level;
+  private static final Set<String> mimeTypes;
+  private static final BlockingQueue<Deflater> gzipPool;
+  private static final BlockingQueue<Deflater> deflatePool;
+
+  static {
+    enabled = Boolean.parseBoolean(Constants.getString("compression.enabled", "true"));
+    deflateEnabled = Constants.getBoolean("compression.deflate");
+    minSize = Math.max(0, Constants.getInteger("compression.min-size", 1024));
+    level = Constants.getInteger("compression.level", Deflater.DEFAULT_COMPRESSION);
+    mimeTypes = new HashSet<>();
+    for (String type : Constants.getString("compression.mime-types", "application/json|text/html").split("\\|"))
+      if (!type.isBlank())
+        mimeTypes.add(type.trim().toLowerCase(Locale.ROOT));
+
+    int poolSize = Runtime.getRuntime().availableProcessors() * 4;
+    gzipPool = new ArrayBlockingQueue<>(poolSize);
+    deflatePool = new ArrayBlockingQueue<>(poolSize);
+  }
+
+  /**
+   * Private constructor to avoid creating an instance of this class
+   */
+  private Compression() {
+  }
+
+  /**
+   * Wraps the response so that its body is compressed if the client accepts it.
+   *
+   * @param req  the request of server
+   * @param resp the response of server
+   * @return the wrapped response, or the given response if it will not be
+   *         compressed
+   */
+  public static HttpServletResponse apply(HttpServletRequest req, HttpServletResponse resp) {
+    if (!enabled)
+      return resp;
+    resp.addHeader("Vary", "Accept-Encoding");
+
+    String encoding = negotiate(req.getHeader("Accept-Encoding"));
+    if (encoding == null)
+      return resp;
+    return new CompressionResponse(resp, encoding, minSize);
+  }
+
+  /**
+   * Chooses the encoding from the {@code Accept-Encoding} header. The
+   * {@code gzip} encoding is preferred when both are accepted.
+   *
+   * @param header the value of the header
+   * @return the chosen encoding, null if none is accepted
+   */
+  static String negotiate(String header) {
+    if (header == null || header.isEmpty())
+      return null;
+
+    boolean gzip = false;
+    boolean deflate = false;
+    for (String item : header.split(",")) {
+      String[] params = item.split(";");
+      String name = params[0].trim().toLowerCase(Locale.ROOT);
+      if (isRejected(params))
+        continue;
+      if (name.equals(GZIP) || name.equals("x-gzip") || name.equals("*"))
+        gzip = true;
+      else if (name.equals(DEFLATE))
+        deflate = true;
+    }
+
+    if (gzip)
+      return GZIP;
+    if (deflate && deflateEnabled)
+      return DEFLATE;
+    return null;
+  }
+
+  /**
+   * Checks if an item of the {@code Accept-Encoding} header has a zero quality.
+   *
+   * @param params the item split by {@code ;}
+   * @return true if the item is rejected, false otherwise
+   */
+  private static boolean isRejected(String[] params) {
+    for (int i = 1; i < params.length; i++) {
+      String param = params[i].trim();
+      if (param.startsWith("q=")) {
+        try {
+          return Double.parseDouble(param.substring(2)) <= 0;
+        } catch (NumberFormatException e) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks if the content type can be compressed.
+   *
+   * @param contentType the content type of response
+   * @return true if the content type is in the config, false otherwise
+   */
+  static boolean isCompressible(String contentType) {
+    if (contentType == null)
+      return false;
+    int end = contentType.indexOf(';');
+    String type = (end < 0 ? contentType : contentType.substring(0, end)).trim().toLowerCase(Locale.ROOT);
+    return mimeTypes.contains(type);
+  }
+
+  /**
+   * Takes a deflater from the pool, or creates one if the pool is empty.
+   *
+   * @param encoding the encoding of response
+   * @return the deflater
+   */
+  static Deflater acquire(String encoding) {
+    boolean gzip = encoding.equals(GZIP);
+    Deflater deflater = (gzip ? gzipPool : deflatePool).poll();
+    if (deflater == null)
+      deflater = new Deflater(level, gzip);
+    return deflater;
+  }
+
+  /**
+   * Gives the deflater back to the pool, or frees it if the pool is full.
+   *
+   * @param encoding the encoding of response
+   * @param deflater the deflater to give back
+   */
+  static void release(String encoding, Deflater deflater) {
+    deflater.reset();
+    if (!(encoding.equals(GZIP) ? gzipPool : deflatePool).offer(deflater))
+      deflater.end();
+  }
+}
@@ -0,0 +1,317 @@
+package com.vnexos.sema.http;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A specialized {@code HttpServletResponseWrapper} that compresses the body
+ * while it is being written.
+ *
+ * <p>
+ * The first bytes of the body are kept until there are more than the minimum
+ * size. A smaller body is sent as it is, with its length. A larger body is
+ * compressed if its content type can be compressed, and is streamed without
+ * keeping the whole body in memory.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see Compression
+ */
+public class CompressionResponse extends HttpServletResponseWrapper implements FinishableResponse {
+  private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+  private final String encoding;
+  private final CompressionStream stream;
+  private PrintWriter writer;
+  private long contentLength = -1;
+
+  /**
+   * Constructs a compressed response.
+   *
+   * @param response the response of server
+   * @param encoding the encoding to compress with
+   * @param minSize  the minimum size of the body to be compressed
+   */
+  CompressionResponse(HttpServletResponse response, String encoding, int minSize) {
+    super(response);
+    this.encoding = encoding;
+    this.stream = new CompressionStream(minSize);
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (writer != null)
+      throw new IllegalStateException("getWriter() has already been called");
+    return stream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (writer == null)
+      writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+    return writer;
+  }
+
+  @Override
+  public void setContentLength(int len) {
+    contentLength = len;
+  }
+
+  @Override
+  public void setContentLengthLong(long len) {
+    contentLength = len;
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (writer != null)
+      writer.flush();
+    stream.flush();
+  }
+
+  @Override
+  public void resetBuffer() {
+    stream.reset();
+    super.resetBuffer();
+  }
+
+  @Override
+  public void reset() {
+    stream.reset();
+    writer = null;
+    contentLength = -1;
+    super.reset();
+  }
+
+  /**
+   * Writes the rest of the body and frees the deflater.
+   */
+  @Override
+  public void finish() throws IOException {
+    if (writer != null)
+      writer.flush();
+    stream.finish();
+  }
+
+  /**
+   * Gets the encoding a body with the given length would be compressed with.
+   *
+   * @param length the length of the body
+   * @return the encoding, null if the body would not be compressed
+   */
+  String getEncodingFor(long length) {
+    return stream.canCompress(length) ? encoding : null;
+  }
+
+  /**
+   * The output stream that decides whether to compress the body.
+   */
+  private class CompressionStream extends ServletOutputStream {
+    private final byte[] buffer;
+    private int count = 0;
+    private boolean isDecided = false;
+    private boolean isFinished = false;
+    private Deflater deflater;
+    private CRC32 crc;
+    private byte[] output;
+
+    CompressionStream(int minSize) {
+      this.buffer = new byte[minSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (isFinished)
+        throw new IOException("The response has already been finished");
+      if (!isDecided) {
+        if (count + len <= buffer.length) {
+          System.arraycopy(b, off, buffer, count, len);
+          count += len;
+          return;
+        }
+        decide();
+        writeThrough(buffer, 0, count);
+        count = 0;
+      }
+      writeThrough(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (isDecided)
+        getResponse().getOutputStream().flush();
+    }
+
+    @Override
+    public boolean isReady() {
+      try {
+        return getResponse().getOutputStream().isReady();
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      try {
+        getResponse().getOutputStream().setWriteListener(writeListener);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /**
+     * Decides whether to compress the body, and sets the headers for it.
+     *
+     * @throws IOException if the header of the encoding cannot be written
+     */
+    private void decide() throws IOException {
+      isDecided = true;
+      HttpServletResponse response = (HttpServletResponse) getResponse();
+      if (!canCompress(contentLength)) {
+        if (contentLength >= 0)
+          response.setContentLengthLong(contentLength);
+        return;
+      }
+
+      response.setHeader("Content-Encoding", encoding);
+      deflater = Compression.acquire(encoding);
+      output = new byte[8192];
+      if (encoding.equals(Compression.GZIP)) {
+        crc = new CRC32();
+        response.getOutputStream().write(GZIP_HEADER);
+      }
+    }
+
+    /**
+     * Checks if a body with the given length can be compressed.
+     *
+     * @param length the length of the body, -1 if it is unknown
+     * @return true if the body can be compressed, false otherwise
+     */
+    boolean canCompress(long length) {
+      HttpServletResponse response = (HttpServletResponse) getResponse();
+      return Compression.isCompressible(response.getContentType())
+          && response.getHeader("Content-Encoding") == null
+          && response.getStatus() != 204 && response.getStatus() != 206 && response.getStatus() != 304
+          && (length < 0 || length > buffer.length);
+    }
+
+    /**
+     * Writes the bytes to the response, compressed if it is decided so.
+     *
+     * @param b   the bytes to write
+     * @param off the start offset in the bytes
+     * @param len the number of bytes to write
+     * @throws IOException if the bytes cannot be written
+     */
+    private void writeThrough(byte[] b, int off, int len) throws IOException {
+      if (len == 0)
+        return;
+      if (deflater == null) {
+        getResponse().getOutputStream().write(b, off, len);
+        return;
+      }
+      if (crc != null)
+        crc.update(b, off, len);
+      deflater.setInput(b, off, len);
+      while (!deflater.needsInput())
+        drain(Deflater.NO_FLUSH);
+    }
+
+    /**
+     * Writes the compressed bytes from the deflater to the response.
+     *
+     * @param flush the flush mode of the deflater
+     * @throws IOException if the bytes cannot be written
+     */
+    private void drain(int flush) throws IOException {
+      int length = deflater.deflate(output, 0, output.length, flush);
+      if (length > 0)
+        getResponse().getOutputStream().write(output, 0, length);
+    }
+
+    /**
+     * Writes the rest of the body and the trailer of the encoding.
+     *
+     * @throws IOException if the body cannot be written
+     */
+    void finish() throws IOException {
+      if (isFinished)
+        return;
+      isFinished = true;
+
+      if (!isDecided) {
+        isDecided = true;
+        if (count > 0 || contentLength >= 0)
+          getResponse().setContentLengthLong(count);
+        if (count > 0)
+          getResponse().getOutputStream().write(buffer, 0, count);
+        return;
+      }
+      if (deflater == null)
+        return;
+
+      try {
+        deflater.finish();
+        while (!deflater.finished())
+          drain(Deflater.NO_FLUSH);
+        if (crc != null) {
+          writeInt((int) crc.getValue());
+          writeInt(deflater.getTotalIn());
+        }
+      } finally {
+        Compression.release(encoding, deflater);
+        deflater = null;
+      }
+    }
+
+    /**
+     * Writes an integer in little endian, as used by the trailer of gzip.
+     *
+     * @param value the integer to write
+     * @throws IOException if the integer cannot be written
+     */
+    private void writeInt(int value) throws IOException {
+      byte[] bytes = { (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24) };
+      getResponse().getOutputStream().write(bytes);
+    }
+
+    /**
+     * Drops the kept bytes and goes back to the undecided state, so the next
+     * body is compressed from its start. The deflater is given back to the
+     * pool and the {@code Content-Encoding} header is removed.
+     *
+     * @throws IllegalStateException if the response has already been committed
+     */
+    void reset() {
+      HttpServletResponse response = (HttpServletResponse) getResponse();
+      if (response.isCommitted())
+        throw new IllegalStateException("Cannot reset buffer after response has been committed");
+      count = 0;
+      isFinished = false;
+      if (!isDecided)
+        return;
+      isDecided = false;
+      if (deflater != null) {
+        Compression.release(encoding, deflater);
+        deflater = null;
+        crc = null;
+        output = null;
+        response.setHeader("Content-Encoding", null);
+      }
+    }
+  }
+}
@@ -0,0 +1,315 @@
+package com.vnexos.sema.http;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.gson.JsonObject;
+import com.vnexos.sema.Constants;
+
+/**
+ * Limits the number of route methods invoked at the same time, with a limit
+ * which adapts to the latency of the routes.
+ *
+ * <p>
+ * The latency of each invocation is compared with a moving minimum of its
+ * route, the latency when nothing is waiting. Each route keeps its own
+ * {@link Baseline}, so a slow route sharing the limiter with fast ones is not
+ * taken as a sign of queuing. While the latency stays close to it, the
+ * limit grows a little. When the latency goes above {@code tolerance} times
+ * the minimum, something is queuing behind the routes, such as the connection
+ * pool, and the limit shrinks with the ratio between them. The limit is
+ * smoothed so that a single slow request does not change it much.
+ *
+ * <p>
+ * A request over the limit waits at most {@code concurrency.max-wait}
+ * milliseconds for another one to finish, then is refused.
+ *
+ * <p>
+ * All modules share the {@code concurrency.*} config by default. A module
+ * whose {@code concurrency.module.<name>.max-limit} config is set has its own
+ * limiter, with its own {@code concurrency.module.<name>.*} values.
+ *
+ * @author Trần Việt Đăng Quang
+ */
+public class ConcurrencyLimiter {
+  private static final String GLOBAL = "";
+  private static final double SMOOTHING = 0.2;
+  private static final Map<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final long maxWait;
+  private final int maxQueue;
+  private final double tolerance;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final LongAdder rejected = new LongAdder();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+  private final ReentrantLock updateLock = new ReentrantLock();
+  private volatile int limit;
+  private double estimatedLimit;
+
+  /**
+   * Constructs a limiter from the config with the given prefix.
+   *
+   * @param prefix the prefix of the config keys
+   */
+  private ConcurrencyLimiter(String prefix) {
+    minLimit = Math.max(1, getInteger(prefix, "min-limit", 4));
+    maxLimit = Math.max(minLimit, getInteger(prefix, "max-limit", 200));
+    limit = Math.min(maxLimit, Math.max(minLimit, getInteger(prefix, "initial-limit", 20)));
+    estimatedLimit = limit;
+    maxWait = TimeUnit.MILLISECONDS.toNanos(Math.max(0, getInteger(prefix, "max-wait", 100)));
+    maxQueue = Math.max(0, getInteger(prefix, "max-queue", 100));
+    double value;
+    try {
+      value = Double.parseDouble(Constants.getString(prefix + "tolerance",
+          Constants.getString("concurrency.tolerance", "2")));
+    } catch (NumberFormatException e) {
+      value = 2;
+    }
+    tolerance = Math.max(1, value);
+  }
+
+  /**
+   * Gets a config of the limiter, or the global config if it is not set.
+   *
+   * @param prefix       the prefix of the config keys
+   * @param key          the name of the config
+   * @param defaultValue the value if none of them is set
+   * @return the value of the config
+   */
+  private static int getInteger(String prefix, String key, int defaultValue) {
+    return Constants.getInteger(prefix + key, Constants.getInteger("concurrency." + key, defaultValue));
+  }
+
+  /**
+   * Gets the limiter shared by the modules without their own config.
+   *
+   * @return the global limiter, null if the limiter is disabled
+   */
+  public static ConcurrencyLimiter getGlobal() {
+    if (!Constants.getBoolean("concurrency.adaptive"))
+      return null;
+    return limiters.computeIfAbsent(GLOBAL, name -> new ConcurrencyLimiter("concurrency."));
+  }
+
+  /**
+   * Gets the limiter of a module.
+   *
+   * @param moduleName the name of the module
+   * @return the limiter of the module, or the global limiter if the module has
+   *         no config, null if the limiter is disabled
+   */
+  public static ConcurrencyLimiter forModule(String moduleName) {
+    if (!Constants.getBoolean("concurrency.adaptive"))
+      return null;
+    if (moduleName == null)
+      return getGlobal();
+    String prefix = "concurrency.module." + moduleName + ".";
+    if (Constants.getString(prefix + "max-limit") == null)
+      return getGlobal();
+    return limiters.computeIfAbsent(moduleName, name -> new ConcurrencyLimiter(prefix));
+  }
+
+  /**
+   * Gets all limiters which have been created, by the name of their module.
+   * The global limiter has an empty name.
+   *
+   * @return the map of limiters
+   */
+  public static Map<String, ConcurrencyLimiter> getLimiters() {
+    return Collections.unmodifiableMap(limiters);
+  }
+
+  /**
+   * Takes a place for an invocation, waiting for a while if there is none.
+   *
+   * @return the time the place was taken in nanoseconds, which must be given
+   *         back to {@link #release(long)}, or -1 if the invocation is refused
+   */
+  public long acquire() {
+    if (tryAcquire())
+      return System.nanoTime();
+    if (maxWait == 0 || queued.incrementAndGet() > maxQueue) {
+      if (maxWait != 0)
+        queued.decrementAndGet();
+      rejected.increment();
+      return -1;
+    }
+
+    lock.lock();
+    try {
+      long nanos = maxWait;
+      while (!tryAcquire()) {
+        if (nanos <= 0) {
+          rejected.increment();
+          return -1;
+        }
+        nanos = available.awaitNanos(nanos);
+      }
+      return System.nanoTime();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      rejected.increment();
+      return -1;
+    } finally {
+      queued.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gives back a place and updates the limit with the latency of the
+   * invocation.
+   *
+   * @param start    the value returned from {@link #acquire()}
+   * @param baseline the latency without load of the invoked route
+   */
+  public void release(long start, Baseline baseline) {
+    int current = inFlight.getAndDecrement();
+    update(System.nanoTime() - start, current, baseline);
+    if (queued.get() > 0) {
+      lock.lock();
+      try {
+        available.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Gets the current limit.
+   *
+   * @return the number of invocations allowed at the same time
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Gets the number of invocations running.
+   *
+   * @return the number of invocations
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Gets the number of requests waiting for a place.
+   *
+   * @return the number of waiting requests
+   */
+  public int getQueued() {
+    return Math.max(0, queued.get());
+  }
+
+  /**
+   * Gets the number of refused requests.
+   *
+   * @return the number of refused requests
+   */
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  /**
+   * Converts the state of the limiter into JSON.
+   *
+   * @return the JSON object of the limiter
+   */
+  public JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    json.addProperty("limit", getLimit());
+    json.addProperty("inFlight", getInFlight());
+    json.addProperty("queued", getQueued());
+    json.addProperty("rejected", getRejected());
+    return json;
+  }
+
+  /**
+   * Takes a place if the limit has not been reached.
+   *
+   * @return true if a place is taken, false otherwise
+   */
+  private boolean tryAcquire() {
+    int current;
+    do {
+      current = inFlight.get();
+      if (current >= limit)
+        return false;
+    } while (!inFlight.compareAndSet(current, current + 1));
+    return true;
+  }
+
+  /**
+   * Updates the limit with the latency of an invocation. If another thread is
+   * updating it, the sample is skipped rather than waiting.
+   *
+   * @param latency  the latency in nanoseconds
+   * @param running  the number of invocations running with it
+   * @param baseline the latency without load of the invoked route
+   */
+  private void update(long latency, int running, Baseline baseline) {
+    if (latency <= 0 || !updateLock.tryLock())
+      return;
+    try {
+      long minLatency = baseline.update(latency);
+      double gradient = Math.max(0.5, Math.min(1.0, tolerance * minLatency / latency));
+      double target = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+      // Do not grow while the limit is not even used
+      if (target > estimatedLimit && running < estimatedLimit / 2)
+        return;
+
+      estimatedLimit = estimatedLimit * (1 - SMOOTHING) + target * SMOOTHING;
+      estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit));
+      int newLimit = (int) estimatedLimit;
+      boolean isGrown = newLimit > limit;
+      limit = newLimit;
+      if (isGrown && queued.get() > 0) {
+        lock.lock();
+        try {
+          available.signalAll();
+        } finally {
+          lock.unlock();
+        }
+      }
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  /**
+   * Keeps the latency without load of a route, which is a moving minimum of
+   * its latencies. It is updated by its limiter only, under the lock of the
+   * limiter.
+   */
+  public static class Baseline {
+    private long minLatency = 0;
+
+    /**
+     * Adds the latency of an invocation. The minimum slowly rises, so it
+     * follows a lasting change of the route.
+     *
+     * @param latency the latency in nanoseconds
+     * @return the new minimum in nanoseconds
+     */
+    long update(long latency) {
+      if (minLatency == 0 || latency < minLatency)
+        minLatency = latency;
+      else
+        minLatency += (latency - minLatency) >> 10;
+      return minLatency;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package com.vnexos.sema.http;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.StringJoiner;
+
+import com.vnexos.sema.Constants;
+import com.vnexos.sema.loader.HttpMethod;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Handles the CORS headers of the responses and the preflight requests.
+ *
+ * <p>
+ * The {@code cors.*} config is read once when the class is loaded. The origins
+ * are kept in a hash set and the values of the headers are built only once, so
+ * a request only looks up its origin and sets the prepared values.
+ *
+ * @author Trần Việt Đăng Quang
+ */
+public class CorsPolicy {
+  private static final Set<String> origins;
+  private static final Set<HttpMethod> methods;
+  private static final String methodsHeader;
+  private static final String headers;
+  private static final String maxAge;
+  private static final String credentials;
+  private static final boolean development;
+  private static final String[] allowHeaders;
+
+  static {
+    origins = new HashSet<>();
+    for (String origin : Constants.getString("cors.origin", "").split("\\|"))
+      if (!origin.isBlank())
+        origins.add(origin.trim());
+
+    methods = EnumSet.noneOf(HttpMethod.class);
+    StringJoiner joiner = new StringJoiner(", ");
+    for (String method : Constants.getString("cors.method", "").split("\\|")) {
+      HttpMethod httpMethod = HttpMethod.of(method.trim());
+      if (httpMethod != null)
+        methods.add(httpMethod);
+      if (!method.isBlank())
+        joiner.add(method.trim());
+    }
+    methodsHeader = joiner.toString();
+    headers = Constants.getString("cors.header", "").replaceAll("\\|", ", ");
+    maxAge = Integer.toString(Constants.getInteger("cors.max-age", 0));
+    credentials = Boolean.toString(Constants.getBoolean("cors.credentials"));
+    development = Constants.getBoolean("module.development");
+    allowHeaders = new String[1 << HttpMethod.values().length];
+  }
+
+  /**
+   * Private constructor to avoid creating an instance of this class
+   */
+  private CorsPolicy() {
+  }
+
+  /**
+   * Sets the CORS headers of a response.
+   *
+   * @param req  the request of server
+   * @param resp the response of server
+   * @return false if the CORS failed, true otherwise
+   */
+  public static boolean apply(HttpServletRequest req, HttpServletResponse resp) {
+    String origin = req.getHeader("Origin");
+    setOrigin(resp, origin);
+    resp.setHeader("Access-Control-Allow-Methods", methodsHeader);
+    resp.setHeader("Access-Control-Allow-Headers", headers);
+    resp.setHeader("Access-Control-Max-Age", maxAge);
+    return origin != null || development;
+  }
+
+  /**
+   * Answers a preflight request with the methods of the routes matching its
+   * path, without reading its body.
+   *
+   * @param req     the request of server
+   * @param resp    the response of server
+   * @param allowed the methods which have a route for the path
+   */
+  public static void preflight(HttpServletRequest req, HttpServletResponse resp, EnumSet<HttpMethod> allowed) {
+    setOrigin(resp, req.getHeader("Origin"));
+    String allow = getAllowHeader(allowed);
+    resp.setHeader("Allow", allow);
+    resp.setHeader("Access-Control-Allow-Methods", filter(allowed));
+    resp.setHeader("Access-Control-Allow-Headers", headers);
+    resp.setHeader("Access-Control-Max-Age", maxAge);
+    resp.setStatus(204);
+  }
+
+  /**
+   * Gets the value of the {@code Allow} header for the given methods. The
+   * {@code HEAD} method is allowed with {@code GET}, and {@code OPTIONS} is
+   * always allowed.
+   *
+   * @param allowed the methods which have a route
+   * @return the value of the header
+   */
+  public static String getAllowHeader(EnumSet<HttpMethod> allowed) {
+    int mask = 0;
+    for (HttpMethod method : allowed)
+      mask |= 1 << method.ordinal();
+
+    String value = allowHeaders[mask];
+    if (value == null) {
+      StringJoiner joiner = new StringJoiner(", ");
+      for (HttpMethod method : allowed) {
+        joiner.add(method.name());
+        if (method == HttpMethod.GET)
+          joiner.add("HEAD");
+      }
+      joiner.add("OPTIONS");
+      value = joiner.toString();
+      allowHeaders[mask] = value;
+    }
+    return value;
+  }
+
+  /**
+   * Sets the {@code Access-Control-Allow-Origin} header if the origin is
+   * allowed. The response depends on the origin, so caches are told to keep
+   * one for each origin.
+   *
+   * @param resp   the response of server
+   * @param origin the origin of request
+   */
+  private static void setOrigin(HttpServletResponse resp, String origin) {
+    if (origin == null)
+      return;
+    resp.addHeader("Vary", "Origin");
+    if (origins.contains(origin)) {
+      resp.setHeader("Access-Control-Allow-Origin", origin);
+      resp.setHeader("Access-Control-Allow-Credentials", credentials);
+    }
+  }
+
+  /**
+   * Gets the methods which are both allowed by the config and have a route.
+   * All methods of the route are allowed if the config has none.
+   *
+   * @param allowed the methods which have a route
+   * @return the value of the {@code Access-Control-Allow-Methods} header
+   */
+  private static String filter(EnumSet<HttpMethod> allowed) {
+    EnumSet<HttpMethod> result = EnumSet.copyOf(allowed);
+    if (!methods.isEmpty())
+      result.retainAll(methods);
+    if (result.equals(methods))
+      return methodsHeader;
+    StringJoiner joiner = new StringJoiner(", ");
+    for (HttpMethod method : result)
+      joiner.add(method.name());
+    return joiner.toString();
+  }
+}
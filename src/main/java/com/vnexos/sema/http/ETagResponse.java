@@ -0,0 +1,170 @@
+package com.vnexos.sema.http;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A specialized {@code HttpServletResponseWrapper} that keeps the body until
+ * the route is handled, so that the {@code ETag} header can be computed from
+ * it before anything is sent.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see ETags
+ */
+public class ETagResponse extends HttpServletResponseWrapper implements FinishableResponse {
+  private final String ifNoneMatch;
+  private final String cacheControl;
+  private final BodyStream stream = new BodyStream();
+  private PrintWriter writer;
+
+  /**
+   * Constructs a response with {@code ETag}.
+   *
+   * @param response     the response of server
+   * @param ifNoneMatch  the {@code If-None-Match} header of the request
+   * @param cacheControl the {@code Cache-Control} header to send
+   */
+  ETagResponse(HttpServletResponse response, String ifNoneMatch, String cacheControl) {
+    super(response);
+    this.ifNoneMatch = ifNoneMatch;
+    this.cacheControl = cacheControl;
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (writer != null)
+      throw new IllegalStateException("getWriter() has already been called");
+    return stream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (writer == null)
+      writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+    return writer;
+  }
+
+  @Override
+  public void setContentLength(int len) {
+    // The length is set from the kept body when it is finished
+  }
+
+  @Override
+  public void setContentLengthLong(long len) {
+    // The length is set from the kept body when it is finished
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (writer != null)
+      writer.flush();
+  }
+
+  @Override
+  public void resetBuffer() {
+    if (writer != null)
+      writer.flush();
+    stream.count = 0;
+    super.resetBuffer();
+  }
+
+  @Override
+  public void reset() {
+    stream.count = 0;
+    writer = null;
+    super.reset();
+  }
+
+  /**
+   * Sends the {@code ETag} header with the kept body, or the {@code 304} status
+   * code if the client has already had the body.
+   */
+  @Override
+  public void finish() throws IOException {
+    if (writer != null)
+      writer.flush();
+    if (stream.isFinished)
+      return;
+    stream.isFinished = true;
+
+    HttpServletResponse response = (HttpServletResponse) getResponse();
+    if (response.getStatus() == 200) {
+      String tag = ETags.compute(stream.buffer, stream.count, getEncoding(response, stream.count));
+      response.setHeader("ETag", tag);
+      response.setHeader("Cache-Control", cacheControl);
+      if (ETags.matches(ifNoneMatch, tag)) {
+        response.setStatus(304);
+        return;
+      }
+    }
+    response.setContentLengthLong(stream.count);
+    if (stream.count > 0)
+      response.getOutputStream().write(stream.buffer, 0, stream.count);
+  }
+
+  /**
+   * Gets the encoding the body will be compressed with, as the same body must
+   * have a different {@code ETag} for each encoding.
+   *
+   * @param response the wrapped response
+   * @param length   the length of the body
+   * @return the encoding, null if the body is not compressed
+   */
+  private static String getEncoding(HttpServletResponse response, long length) {
+    if (response instanceof CompressionResponse)
+      return ((CompressionResponse) response).getEncodingFor(length);
+    return null;
+  }
+
+  /**
+   * The output stream that keeps the whole body in memory.
+   */
+  private static class BodyStream extends ServletOutputStream {
+    private byte[] buffer = new byte[8192];
+    private int count = 0;
+    private boolean isFinished = false;
+
+    @Override
+    public void write(int b) throws IOException {
+      ensureCapacity(1);
+      buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      ensureCapacity(len);
+      System.arraycopy(b, off, buffer, count, len);
+      count += len;
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      throw new UnsupportedOperationException("The body is kept in memory");
+    }
+
+    /**
+     * Grows the buffer to keep more bytes.
+     *
+     * @param length the number of bytes to add
+     * @throws IOException if the response has already been finished
+     */
+    private void ensureCapacity(int length) throws IOException {
+      if (isFinished)
+        throw new IOException("The response has already been finished");
+      if (count + length > buffer.length)
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, count + length));
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package com.vnexos.sema.http;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+import com.vnexos.sema.loader.annotations.ETag;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Handles the {@code ETag} header and conditional GET requests of the routes
+ * annotated with {@link ETag}.
+ *
+ * <p>
+ * The tag is a fast non-cryptographic hash of the body, so it only tells
+ * whether the body has changed and must not be used for anything else.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see ETagResponse
+ */
+public class ETags {
+  private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class,
+      ByteOrder.LITTLE_ENDIAN);
+  private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME_3 = 0x165667B19E3779F9L;
+
+  /**
+   * Private constructor to avoid creating an instance of this class
+   */
+  private ETags() {
+  }
+
+  /**
+   * Wraps the response so that it is sent with an {@code ETag} header if the
+   * route is annotated with {@link ETag}.
+   *
+   * @param req  the request of server
+   * @param resp the response of server
+   * @param etag the annotation of the route, null if there is none
+   * @return the wrapped response, or the given response if the route does not
+   *         use {@code ETag}
+   */
+  public static HttpServletResponse apply(HttpServletRequest req, HttpServletResponse resp, ETag etag) {
+    if (etag == null || !isGetOrHead(req.getMethod()))
+      return resp;
+    String cacheControl = etag.maxAge() > 0 ? "max-age=" + etag.maxAge() : "no-cache";
+    return new ETagResponse(resp, req.getHeader("If-None-Match"), cacheControl);
+  }
+
+  /**
+   * Checks if the method is {@code GET}, or {@code HEAD} which is answered by
+   * the {@code GET} route.
+   *
+   * @param method the method of request
+   * @return true if the method is {@code GET} or {@code HEAD}, false otherwise
+   */
+  static boolean isGetOrHead(String method) {
+    return method.equals("GET") || method.equals("HEAD");
+  }
+
+  /**
+   * Computes the strong {@code ETag} of a body.
+   *
+   * @param data     the bytes of the body
+   * @param length   the length of the body
+   * @param encoding the encoding the body is compressed with, null if it is
+   *                 not compressed
+   * @return the {@code ETag} with quotes
+   */
+  static String compute(byte[] data, int length, String encoding) {
+    String hash = Long.toHexString(hash(data, length));
+    return encoding == null ? '"' + hash + '"' : '"' + hash + '-' + encoding + '"';
+  }
+
+  /**
+   * Checks if the {@code If-None-Match} header contains the tag. Weak tags are
+   * compared by their value, as required for this header.
+   *
+   * @param header the value of the header
+   * @param tag    the {@code ETag} of the response
+   * @return true if the tag is matched, false otherwise
+   */
+  static boolean matches(String header, String tag) {
+    if (header == null || header.isEmpty())
+      return false;
+    for (String item : header.split(",")) {
+      item = item.trim();
+      if (item.startsWith("W/"))
+        item = item.substring(2);
+      if (item.equals("*") || item.equals(tag))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Hashes the bytes into 64 bits, taking 8 bytes at a time.
+   *
+   * @param data   the bytes to hash
+   * @param length the number of bytes to hash
+   * @return the hash of the bytes
+   */
+  static long hash(byte[] data, int length) {
+    long hash = PRIME_3 ^ (length * PRIME_1);
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      long k = (long) LONGS.get(data, i) * PRIME_2;
+      hash ^= Long.rotateLeft(k, 31) * PRIME_1;
+      hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_3;
+    }
+    for (; i < length; i++) {
+      hash ^= (data[i] & 0xFF) * PRIME_3;
+      hash = Long.rotateLeft(hash, 11) * PRIME_1;
+    }
+
+    // Mix the bits so that a small change affects the whole hash
+    hash ^= hash >>> 33;
+    hash *= PRIME_2;
+    hash ^= hash >>> 29;
+    hash *= PRIME_3;
+    return hash ^ (hash >>> 32);
+  }
+}
@@ -0,0 +1,275 @@
+package com.vnexos.sema.http;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.vnexos.sema.FileResponse;
+import com.vnexos.sema.loader.ApiException;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.ServletResponseWrapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Sends the file of a {@link FileResponse} to the client.
+ *
+ * <p>
+ * On Tomcat, the file is handed to the container with its {@code sendfile}
+ * support, so it goes from the disk to the socket without being copied into
+ * the memory of Java. Otherwise it is copied with
+ * {@code FileChannel.transferTo} in small chunks, so the memory used does not
+ * depend on the size of the file.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see FileResponse
+ */
+public class FileTransfer {
+  private static final String SENDFILE = "org.apache.tomcat.sendfile";
+  private static final long CHUNK_SIZE = 1 << 20;
+
+  /**
+   * Private constructor to avoid creating an instance of this class
+   */
+  private FileTransfer() {
+  }
+
+  /**
+   * Sends the file with the headers for caching and ranges. A single range in
+   * the {@code Range} header is answered with the {@code 206} status code, many
+   * ranges are answered with the whole file. The conditional and range headers
+   * only apply to a successful {@code GET} or {@code HEAD} request, other
+   * responses always send the whole file with their own status code.
+   *
+   * @param req      the request of server
+   * @param resp     the response of server
+   * @param response the response of the route method
+   * @throws IOException  if the file cannot be sent
+   * @throws ApiException if the file does not exist
+   */
+  public static void send(HttpServletRequest req, HttpServletResponse resp, FileResponse response)
+      throws IOException, ApiException {
+    Path file = response.getData();
+    if (file == null || !Files.isRegularFile(file))
+      throw new ApiException("File not found!", 404);
+
+    long length = Files.size(file);
+    long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+    resp.setContentType(response.getContentType());
+    resp.setDateHeader("Last-Modified", lastModified);
+    resp.setHeader("Accept-Ranges", "bytes");
+    if (response.getFileName() != null)
+      resp.setHeader("Content-Disposition", createDisposition(response.getFileName()));
+
+    String method = req.getMethod();
+    boolean isConditional = response.getStatusCode() == 200 && (method.equals("GET") || method.equals("HEAD"));
+    if (isConditional && isNotModified(req, lastModified)) {
+      resp.setStatus(304);
+      return;
+    }
+
+    long start = 0;
+    long end = length;
+    String range = isConditional ? req.getHeader("Range") : null;
+    if (range != null && isRangeValid(req, lastModified)) {
+      long[] bounds = parseRange(range, length);
+      if (bounds == null) {
+        resp.setStatus(416);
+        resp.setHeader("Content-Range", "bytes */" + length);
+        return;
+      }
+      if (bounds.length == 2) {
+        start = bounds[0];
+        end = bounds[1];
+        resp.setStatus(206);
+        resp.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + length);
+      } else {
+        resp.setStatus(response.getStatusCode());
+      }
+    } else {
+      resp.setStatus(response.getStatusCode());
+    }
+
+    if (method.equals("HEAD")) {
+      resp.setContentLengthLong(end - start);
+      return;
+    }
+
+    HttpServletResponse raw = unwrap(resp, end - start);
+    if (raw != null && Boolean.TRUE.equals(req.getAttribute(SENDFILE + ".support")) && !req.isAsyncStarted()) {
+      raw.setContentLengthLong(end - start);
+      req.setAttribute(SENDFILE + ".filename", file.toAbsolutePath().toString());
+      req.setAttribute(SENDFILE + ".start", start);
+      req.setAttribute(SENDFILE + ".end", end);
+      countBytes(resp, end - start);
+      return;
+    }
+
+    resp.setContentLengthLong(end - start);
+    transfer(file, start, end, resp.getOutputStream());
+  }
+
+  /**
+   * Copies a part of the file into the output stream.
+   *
+   * @param file  the file to copy
+   * @param start the first byte to copy
+   * @param end   the byte after the last byte to copy
+   * @param os    the output stream of response
+   * @throws IOException if the file cannot be copied
+   */
+  private static void transfer(Path file, long start, long end, ServletOutputStream os) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      WritableByteChannel target = Channels.newChannel(os);
+      long position = start;
+      while (position < end) {
+        long count = channel.transferTo(position, Math.min(CHUNK_SIZE, end - position), target);
+        if (count <= 0)
+          throw new IOException("The file was truncated while being sent");
+        position += count;
+      }
+    }
+    os.flush();
+  }
+
+  /**
+   * Gets the response of the container if none of the wrappers changes the
+   * body, so the container can send the file by itself.
+   *
+   * @param resp   the response of server
+   * @param length the length of the body
+   * @return the response of the container, null if the body must go through
+   *         the wrappers
+   */
+  private static HttpServletResponse unwrap(HttpServletResponse resp, long length) {
+    ServletResponse current = resp;
+    while (current instanceof ServletResponseWrapper) {
+      if (!(current instanceof CompressionResponse || current instanceof MeteredResponse)
+          || current instanceof CompressionResponse && ((CompressionResponse) current).getEncodingFor(length) != null)
+        return null;
+      current = ((ServletResponseWrapper) current).getResponse();
+    }
+    return current instanceof HttpServletResponse ? (HttpServletResponse) current : null;
+  }
+
+  /**
+   * Counts the bytes sent by the container into the metrics of the route.
+   *
+   * @param resp   the response of server
+   * @param length the number of bytes sent
+   */
+  private static void countBytes(ServletResponse resp, long length) {
+    while (resp instanceof ServletResponseWrapper) {
+      if (resp instanceof MeteredResponse)
+        ((MeteredResponse) resp).addBytes(length);
+      resp = ((ServletResponseWrapper) resp).getResponse();
+    }
+  }
+
+  /**
+   * Checks if the client has already had the file, by the
+   * {@code If-Modified-Since} header.
+   *
+   * @param req          the request of server
+   * @param lastModified the time the file was modified
+   * @return true if the file has not been modified, false otherwise
+   */
+  private static boolean isNotModified(HttpServletRequest req, long lastModified) {
+    if (req.getHeader("If-None-Match") != null)
+      return false;
+    long since = getDateHeader(req, "If-Modified-Since");
+    return since >= 0 && lastModified / 1000 <= since / 1000;
+  }
+
+  /**
+   * Checks if the {@code Range} header can be used, by the {@code If-Range}
+   * header. The range is only used if the file has not been modified since the
+   * date in that header.
+   *
+   * @param req          the request of server
+   * @param lastModified the time the file was modified
+   * @return true if the range can be used, false otherwise
+   */
+  private static boolean isRangeValid(HttpServletRequest req, long lastModified) {
+    if (req.getHeader("If-Range") == null)
+      return true;
+    long since = getDateHeader(req, "If-Range");
+    return since >= 0 && lastModified / 1000 == since / 1000;
+  }
+
+  /**
+   * Gets a header as a date.
+   *
+   * @param req  the request of server
+   * @param name the name of header
+   * @return the date in milliseconds, -1 if it is missing or invalid
+   */
+  private static long getDateHeader(HttpServletRequest req, String name) {
+    try {
+      return req.getDateHeader(name);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Parses the {@code Range} header.
+   *
+   * @param header the value of the header
+   * @param length the length of the file
+   * @return the start and the end (exclusive) of the range, an empty array if
+   *         the header is ignored, null if the range is not satisfiable
+   */
+  static long[] parseRange(String header, long length) {
+    if (!header.startsWith("bytes=") || header.indexOf(',') >= 0)
+      return new long[0];
+    String spec = header.substring(6).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0)
+      return new long[0];
+
+    try {
+      String first = spec.substring(0, dash).trim();
+      String last = spec.substring(dash + 1).trim();
+      if (first.isEmpty()) {
+        // The last bytes of the file
+        long suffix = Long.parseLong(last);
+        if (suffix <= 0 || length == 0)
+          return null;
+        return new long[] { Math.max(0, length - suffix), length };
+      }
+
+      long start = Long.parseLong(first);
+      long end = last.isEmpty() ? length : Math.min(length, Long.parseLong(last) + 1);
+      if (start >= length)
+        return null;
+      if (end <= start)
+        return new long[0];
+      return new long[] { start, end };
+    } catch (NumberFormatException e) {
+      return new long[0];
+    }
+  }
+
+  /**
+   * Creates the {@code Content-Disposition} header to download the file with
+   * the given name.
+   *
+   * @param fileName the name of file
+   * @return the value of the header
+   */
+  private static String createDisposition(String fileName) {
+    String ascii = fileName.replaceAll("[^\\x20-\\x7e]|[\"\\\\]", "_");
+    String encoded = URLEncoder.encode(fileName, StandardCharsets.UTF_8).replace("+", "%20");
+    return "attachment; filename=\"" + ascii + "\"; filename*=UTF-8''" + encoded;
+  }
+}
@@ -0,0 +1,26 @@
+package com.vnexos.sema.http;
+
+import java.io.IOException;
+
+/**
+ * Represents a response wrapper which keeps a part of the body, so it must be
+ * finished after the route is handled to send the rest of the body.
+ *
+ * @author Trần Việt Đăng Quang
+ */
+public interface FinishableResponse {
+  /**
+   * Sends the rest of the body to the wrapped response.
+   *
+   * @throws IOException if the body cannot be written
+   */
+  void finish() throws IOException;
+
+  /**
+   * Marks the response as failed after a part of its body may have been sent,
+   * so the body is not kept or shared. It is called before the response is
+   * finished.
+   */
+  default void markFailed() {
+  }
+}
@@ -0,0 +1,125 @@
+package com.vnexos.sema.http;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A specialized {@code HttpServletResponseWrapper} for {@code HEAD} requests,
+ * which drops the body written by the {@code GET} route and only counts its
+ * bytes.
+ *
+ * <p>
+ * The headers are the same as the ones of the {@code GET} request. If the
+ * route does not set the {@code Content-Length} header, it is set to the
+ * number of counted bytes when the response is finished.
+ *
+ * @author Trần Việt Đăng Quang
+ */
+public class HeadResponse extends HttpServletResponseWrapper implements FinishableResponse {
+  private final CountingStream stream = new CountingStream();
+  private PrintWriter writer;
+  private boolean isLengthSet = false;
+
+  /**
+   * Constructs a response without body.
+   *
+   * @param response the response of server
+   */
+  public HeadResponse(HttpServletResponse response) {
+    super(response);
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (writer != null)
+      throw new IllegalStateException("getWriter() has already been called");
+    return stream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (writer == null)
+      writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+    return writer;
+  }
+
+  @Override
+  public void setContentLength(int len) {
+    isLengthSet = true;
+    super.setContentLength(len);
+  }
+
+  @Override
+  public void setContentLengthLong(long len) {
+    isLengthSet = true;
+    super.setContentLengthLong(len);
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (writer != null)
+      writer.flush();
+  }
+
+  @Override
+  public void resetBuffer() {
+    stream.count = 0;
+    super.resetBuffer();
+  }
+
+  @Override
+  public void reset() {
+    stream.count = 0;
+    writer = null;
+    isLengthSet = false;
+    super.reset();
+  }
+
+  /**
+   * Sets the length of the dropped body if it has not been set.
+   */
+  @Override
+  public void finish() throws IOException {
+    if (writer != null)
+      writer.flush();
+    if (!isLengthSet && !isCommitted() && stream.count > 0)
+      super.setContentLengthLong(stream.count);
+  }
+
+  /**
+   * The output stream that counts the bytes without writing them.
+   */
+  private static class CountingStream extends ServletOutputStream {
+    private long count = 0;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      try {
+        writeListener.onWritePossible();
+      } catch (IOException e) {
+        writeListener.onError(e);
+      }
+    }
+  }
+}
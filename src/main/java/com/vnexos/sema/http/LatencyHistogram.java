@@ -0,0 +1,131 @@
+package com.vnexos.sema.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records durations in buckets whose width grows with the value, so that any
+ * value is kept with the same relative precision.
+ *
+ * <p>
+ * Each power of two is split into 16 buckets, so a value is known within about
+ * 6% of itself, from one nanosecond to hours, with less than a thousand
+ * counters. Recording a value only computes its bucket from the leading zeros
+ * and increments a counter, without any lock or allocation.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see RouteMetrics
+ */
+public class LatencyHistogram {
+  private static final int SUB_BITS = 4;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final int BUCKET_COUNT = SUB_COUNT + (63 - SUB_BITS) * SUB_COUNT;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a duration.
+   *
+   * @param nanos the duration in nanoseconds, negative values are recorded as
+   *              zero
+   */
+  public void record(long nanos) {
+    if (nanos < 0)
+      nanos = 0;
+    buckets.incrementAndGet(indexOf(nanos));
+    count.increment();
+    total.add(nanos);
+    long current = max.get();
+    while (nanos > current && !max.compareAndSet(current, nanos))
+      current = max.get();
+  }
+
+  /**
+   * Gets the number of recorded durations.
+   *
+   * @return the number of durations
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Gets the mean of the recorded durations.
+   *
+   * @return the mean in nanoseconds, 0 if nothing has been recorded
+   */
+  public double getMean() {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) total.sum() / n;
+  }
+
+  /**
+   * Gets the longest recorded duration.
+   *
+   * @return the longest duration in nanoseconds
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Gets the duration below which the given percentage of durations are.
+   *
+   * @param percentile the percentage, from 0 to 100
+   * @return the highest value of the bucket containing the percentile in
+   *         nanoseconds, 0 if nothing has been recorded
+   */
+  public long getPercentile(double percentile) {
+    long[] counts = new long[BUCKET_COUNT];
+    long n = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets.get(i);
+      n += counts[i];
+    }
+    if (n == 0)
+      return 0;
+
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if (seen >= rank)
+        return Math.min(highestOf(i), max.get());
+    }
+    return max.get();
+  }
+
+  /**
+   * Gets the bucket of a value.
+   *
+   * @param value the value, not negative
+   * @return the index of the bucket
+   */
+  static int indexOf(long value) {
+    if (value < SUB_COUNT)
+      return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BITS;
+    int sub = (int) (value >>> shift) - SUB_COUNT;
+    return SUB_COUNT + shift * SUB_COUNT + sub;
+  }
+
+  /**
+   * Gets the highest value of a bucket.
+   *
+   * @param index the index of the bucket
+   * @return the highest value which is put into the bucket
+   */
+  static long highestOf(int index) {
+    if (index < SUB_COUNT)
+      return index;
+    int shift = (index - SUB_COUNT) / SUB_COUNT;
+    long sub = (index - SUB_COUNT) % SUB_COUNT;
+    long lowest = (SUB_COUNT + sub) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
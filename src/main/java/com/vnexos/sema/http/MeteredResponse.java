@@ -0,0 +1,136 @@
+package com.vnexos.sema.http;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A specialized {@code HttpServletResponseWrapper} that counts the bytes sent
+ * to the client and records the request into the metrics of its route.
+ *
+ * <p>
+ * It is the innermost wrapper, so the counted bytes are the ones sent on the
+ * connection, after compression.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see RouteMetrics
+ */
+public class MeteredResponse extends HttpServletResponseWrapper {
+  private final RouteMetrics metrics;
+  private final long start = System.nanoTime();
+  private final AtomicBoolean isEnded = new AtomicBoolean();
+  // Async routes and streams write from other threads than the request one
+  private final LongAdder bytes = new LongAdder();
+  private CountingStream stream;
+  private PrintWriter writer;
+
+  /**
+   * Constructs a metered response and counts the request as in flight.
+   *
+   * @param response      the response of server
+   * @param metrics       the metrics of the route
+   * @param contentLength the length of the request body, -1 if it is unknown
+   */
+  public MeteredResponse(HttpServletResponse response, RouteMetrics metrics, long contentLength) {
+    super(response);
+    this.metrics = metrics;
+    metrics.begin(contentLength);
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (writer != null)
+      throw new IllegalStateException("getWriter() has already been called");
+    if (stream == null)
+      stream = new CountingStream(super.getOutputStream());
+    return stream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (writer == null) {
+      if (stream == null)
+        stream = new CountingStream(super.getOutputStream());
+      writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+    }
+    return writer;
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (writer != null)
+      writer.flush();
+    super.flushBuffer();
+  }
+
+  /**
+   * Counts bytes which are sent by the container without going through this
+   * response, such as a file sent with {@code sendfile}.
+   *
+   * @param count the number of bytes
+   */
+  void addBytes(long count) {
+    bytes.add(count);
+  }
+
+  /**
+   * Records the request into the metrics of its route. Only the first call
+   * records it.
+   */
+  public void end() {
+    if (writer != null)
+      writer.flush();
+    if (isEnded.compareAndSet(false, true))
+      metrics.end(getStatus(), bytes.sum(), System.nanoTime() - start);
+  }
+
+  /**
+   * The output stream that counts the bytes written to the response.
+   */
+  private class CountingStream extends ServletOutputStream {
+    private final ServletOutputStream output;
+
+    CountingStream(ServletOutputStream output) {
+      this.output = output;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      output.write(b);
+      bytes.increment();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      output.write(b, off, len);
+      bytes.add(len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      output.close();
+    }
+
+    @Override
+    public boolean isReady() {
+      return output.isReady();
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      output.setWriteListener(writeListener);
+    }
+  }
+}
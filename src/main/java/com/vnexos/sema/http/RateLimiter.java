@@ -0,0 +1,166 @@
+package com.vnexos.sema.http;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vnexos.sema.Constants;
+import com.vnexos.sema.loader.annotations.RateLimit;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Limits the rate of requests each client can send to a route, with a token
+ * bucket for each client.
+ *
+ * <p>
+ * A bucket is kept as a single {@code AtomicLong}, the time when it will be
+ * full again. Taking a token moves that time forward by the interval between
+ * tokens, and is refused if the bucket would need to hold more than its size.
+ * So a request only does one compare-and-set, without any lock, and a full
+ * bucket can be dropped without losing anything.
+ *
+ * <p>
+ * The routes without {@link RateLimit} use the {@code ratelimit.*} config.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see RateLimit
+ */
+public class RateLimiter {
+  private static final double defaultRate;
+  private static final int defaultBurst;
+  private static final String defaultKey;
+  private static final int maxClients;
+  private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+  static {
+    double rate;
+    try {
+      rate = Double.parseDouble(Constants.getString("ratelimit.rate", "0"));
+    } catch (NumberFormatException e) {
+      rate = 0;
+    }
+    defaultRate = rate;
+    defaultBurst = Constants.getInteger("ratelimit.burst", 0);
+    defaultKey = Constants.getString("ratelimit.key", "");
+    maxClients = Math.max(1, Constants.getInteger("ratelimit.max-clients", 100000));
+  }
+
+  private final long interval;
+  private final long tolerance;
+  private final String key;
+  private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+  private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+  private final LongAdder rejected = new LongAdder();
+
+  /**
+   * Constructs a limiter.
+   *
+   * @param rate  the number of requests each second
+   * @param burst the size of the bucket
+   * @param key   the name of the header which tells clients apart, empty for
+   *              the IP address
+   */
+  private RateLimiter(double rate, int burst, String key) {
+    this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+    this.tolerance = interval * (Math.max(1, burst) - 1);
+    this.key = key;
+  }
+
+  /**
+   * Creates the limiter of a route.
+   *
+   * @param annotation the annotation of the route, null to use the config
+   * @return the limiter, null if the route is not limited
+   */
+  public static RateLimiter create(RateLimit annotation) {
+    double rate = annotation != null ? annotation.rate() : defaultRate;
+    if (!(rate > 0))
+      return null;
+    int burst = annotation != null && annotation.burst() > 0
+        ? annotation.burst()
+        : defaultBurst > 0 ? defaultBurst : (int) Math.max(1, Math.ceil(rate));
+    String key = annotation != null && !annotation.key().isEmpty() ? annotation.key() : defaultKey;
+    return new RateLimiter(rate, burst, key);
+  }
+
+  /**
+   * Takes a token from the bucket of the client which sent the request.
+   *
+   * @param req the request of server
+   * @return 0 if the request is allowed, otherwise the time in nanoseconds
+   *         until a token is available
+   */
+  public long acquire(HttpServletRequest req) {
+    long now = System.nanoTime();
+    String client = getClient(req);
+    AtomicLong bucket = buckets.get(client);
+    if (bucket == null) {
+      sweep(now);
+      bucket = buckets.computeIfAbsent(client, c -> new AtomicLong(now));
+    }
+
+    while (true) {
+      long full = bucket.get();
+      long start = full - now > 0 ? full : now;
+      long wait = start - now - tolerance;
+      if (wait > 0) {
+        rejected.increment();
+        return wait;
+      }
+      if (bucket.compareAndSet(full, start + interval))
+        return 0;
+    }
+  }
+
+  /**
+   * Gets the number of clients whose buckets are kept.
+   *
+   * @return the number of clients
+   */
+  public int getClients() {
+    return buckets.size();
+  }
+
+  /**
+   * Gets the number of refused requests.
+   *
+   * @return the number of refused requests
+   */
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  /**
+   * Gets the key of the client which sent the request.
+   *
+   * @param req the request of server
+   * @return the value of the key header, or the IP address if there is none
+   */
+  private String getClient(HttpServletRequest req) {
+    if (!key.isEmpty()) {
+      String value = req.getHeader(key);
+      if (value != null)
+        return value;
+    }
+    return req.getRemoteAddr();
+  }
+
+  /**
+   * Drops the full buckets when there are too many clients. It runs at most
+   * once a second, so a flood of new clients does not scan the map each time.
+   *
+   * @param now the current time in nanoseconds
+   */
+  private void sweep(long now) {
+    long last = lastSweep.get();
+    if (buckets.size() < maxClients || now - last < SWEEP_INTERVAL || !lastSweep.compareAndSet(last, now))
+      return;
+    Iterator<AtomicLong> iterator = buckets.values().iterator();
+    while (iterator.hasNext())
+      if (iterator.next().get() - now <= 0)
+        iterator.remove();
+  }
+}
@@ -0,0 +1,198 @@
+package com.vnexos.sema.http;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vnexos.sema.Constants;
+import com.vnexos.sema.loader.RequestView;
+import com.vnexos.sema.loader.Route;
+import com.vnexos.sema.loader.RouteMatch;
+import com.vnexos.sema.loader.annotations.Coalesce;
+
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.ServletResponseWrapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Lets identical GET requests to the routes annotated with {@link Coalesce}
+ * share a single invocation of the route method.
+ *
+ * <p>
+ * The requests being handled are kept by their key. The first request of a
+ * key invokes the route method and keeps a copy of its body, the requests
+ * arriving before it finishes wait for that copy instead of invoking the route
+ * method again. Nothing is kept after the first request finishes, so this is
+ * not a cache: a request arriving later invokes the route method again.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see CoalescingResponse
+ */
+public class RequestCoalescer {
+  private static final long defaultMaxWait;
+  private static final int maxSize;
+  private static final Map<String, Flight> flights = new ConcurrentHashMap<>();
+  private static final Map<Route, CoalesceStats> stats = new ConcurrentHashMap<>();
+
+  static {
+    defaultMaxWait = Constants.getInteger("coalesce.max-wait", 5000);
+    maxSize = Math.max(0, Constants.getInteger("coalesce.max-size", 1048576));
+  }
+
+  /**
+   * Represents the invocation of a route method which other requests wait for.
+   */
+  static class Flight {
+    final CompletableFuture<Shared> result = new CompletableFuture<>();
+  }
+
+  /**
+   * Represents the reason why an invocation has no response to share.
+   */
+  public enum Unshared {
+    /** The response does not have the {@code 200} status code. */
+    STATUS,
+    /** The body is too large, or has been sent around the wrapper. */
+    NOT_KEPT,
+    /** The response is a stream, which cannot be shared. */
+    ABANDONED,
+    /** The body has been cut by an error, or the invocation has failed. */
+    FAILED
+  }
+
+  /**
+   * Represents the result of an invocation, which is either the response to
+   * share or the reason why there is none.
+   */
+  static class Shared {
+    final String contentType;
+    final String[] vary;
+    final byte[] body;
+    final Unshared reason;
+
+    Shared(String contentType, String[] vary, byte[] body) {
+      this.contentType = contentType;
+      this.vary = vary;
+      this.body = body;
+      this.reason = null;
+    }
+
+    Shared(Unshared reason) {
+      this.contentType = null;
+      this.vary = null;
+      this.body = null;
+      this.reason = reason;
+    }
+  }
+
+  /**
+   * Private constructor to avoid creating an instance of this class
+   */
+  private RequestCoalescer() {
+  }
+
+  /**
+   * Wraps the response so that it can share or be answered with the response
+   * of an identical request, if the route is annotated with {@link Coalesce}.
+   *
+   * @param req     the request of server
+   * @param resp    the response of server
+   * @param match   the matched route with its params
+   * @param request the view of the request
+   * @return the wrapped response, or the given response if the route is not
+   *         coalesced
+   */
+  public static HttpServletResponse apply(HttpServletRequest req, HttpServletResponse resp, RouteMatch match,
+      RequestView request) {
+    Route route = match.getRoute();
+    Coalesce coalesce = route.getCoalesce();
+    if (coalesce == null || !ETags.isGetOrHead(req.getMethod()))
+      return resp;
+    if (!coalesce.shared() && ResponseCache.hasCredentials(req))
+      return resp;
+    String key = ResponseCache.createKey(req, match, request.getQuery(), coalesce.key());
+    long maxWait = coalesce.maxWait() >= 0 ? coalesce.maxWait() : defaultMaxWait;
+    CoalesceStats routeStats = stats.computeIfAbsent(route, r -> new CoalesceStats());
+    return new CoalescingResponse(resp, key, maxWait, routeStats, maxSize);
+  }
+
+  /**
+   * Sends the response of an identical request if one is being handled,
+   * otherwise lets this request be the one which invokes the route method.
+   *
+   * @param resp the response returned from {@link #apply}, which may have been
+   *             wrapped again
+   * @return true if the response has been sent, false if the route method must
+   *         be invoked
+   * @throws IOException if the response cannot be written
+   */
+  public static boolean sendShared(ServletResponse resp) throws IOException {
+    while (resp instanceof ServletResponseWrapper) {
+      if (resp instanceof CoalescingResponse)
+        return ((CoalescingResponse) resp).sendShared();
+      resp = ((ServletResponseWrapper) resp).getResponse();
+    }
+    return false;
+  }
+
+  /**
+   * Lets the requests waiting for this response invoke the route method by
+   * themselves, as the response is a stream which cannot be shared.
+   *
+   * @param resp the response returned from {@link #apply}, which may have been
+   *             wrapped again
+   */
+  public static void abandon(ServletResponse resp) {
+    while (resp instanceof ServletResponseWrapper) {
+      if (resp instanceof CoalescingResponse) {
+        ((CoalescingResponse) resp).abandon();
+        return;
+      }
+      resp = ((ServletResponseWrapper) resp).getResponse();
+    }
+  }
+
+  /**
+   * Gets the invocations and collapsed requests of a route.
+   *
+   * @param route the route to get
+   * @return the stats of the route, null if the route is not coalesced or has
+   *         not been requested
+   */
+  public static CoalesceStats getStats(Route route) {
+    return stats.get(route);
+  }
+
+  /**
+   * Gets the number of invocations which requests can wait for.
+   *
+   * @return the number of invocations
+   */
+  public static int getInFlight() {
+    return flights.size();
+  }
+
+  /**
+   * Registers an invocation for the key, if there is none.
+   *
+   * @param key    the key of the request
+   * @param flight the invocation to register
+   * @return the invocation which has already been registered, null if the
+   *         given one is registered
+   */
+  static Flight join(String key, Flight flight) {
+    return flights.putIfAbsent(key, flight);
+  }
+
+  /**
+   * Removes an invocation, so that the next request invokes the route method.
+   *
+   * @param key    the key of the request
+   * @param flight the invocation to remove
+   */
+  static void leave(String key, Flight flight) {
+    flights.remove(key, flight);
+  }
+}
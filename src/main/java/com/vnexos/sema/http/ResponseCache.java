@@ -0,0 +1,283 @@
+package com.vnexos.sema.http;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import com.vnexos.sema.Constants;
+import com.vnexos.sema.loader.RequestView;
+import com.vnexos.sema.loader.Route;
+import com.vnexos.sema.loader.RouteMatch;
+import com.vnexos.sema.loader.annotations.Cacheable;
+
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.ServletResponseWrapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Keeps the serialized responses of the routes annotated with
+ * {@link Cacheable} in memory.
+ *
+ * <p>
+ * The cache is bounded by the total size of the kept bodies, given by the
+ * {@code cache.max-size} config. When it is full, the least recently used
+ * responses are removed first. A response is also removed when it is read
+ * after its time to live.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see CachingResponse
+ */
+public class ResponseCache {
+  private static final long ENTRY_OVERHEAD = 96;
+
+  private static final long maxSize;
+  private static final int maxEntrySize;
+  private static final LinkedHashMap<String, Entry> entries;
+  private static final Map<Route, CacheStats> stats;
+  private static long size = 0;
+
+  static {
+    maxSize = Math.max(0, Constants.getInteger("cache.max-size", 67108864));
+    maxEntrySize = Math.max(0, Constants.getInteger("cache.max-entry-size", 1048576));
+    entries = new LinkedHashMap<>(16, 0.75f, true);
+    stats = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Represents a kept response.
+   */
+  static class Entry {
+    final Route route;
+    final String contentType;
+    final String[] vary;
+    final byte[] body;
+    final long expiresAt;
+    final long size;
+
+    Entry(Route route, String key, String contentType, String[] vary, byte[] body, long expiresAt) {
+      this.route = route;
+      this.contentType = contentType;
+      this.vary = vary;
+      this.body = body;
+      this.expiresAt = expiresAt;
+      this.size = ENTRY_OVERHEAD + body.length + 2L * key.length();
+    }
+  }
+
+  /**
+   * Private constructor to avoid creating an instance of this class
+   */
+  private ResponseCache() {
+  }
+
+  /**
+   * Wraps the response so that it can be sent from or kept in the cache if the
+   * route is annotated with {@link Cacheable}.
+   *
+   * @param req   the request of server
+   * @param resp  the response of server
+   * @param match   the matched route with its params
+   * @param request the view of the request
+   * @return the wrapped response, or the given response if the route is not
+   *         cached
+   */
+  public static HttpServletResponse apply(HttpServletRequest req, HttpServletResponse resp, RouteMatch match,
+      RequestView request) {
+    Route route = match.getRoute();
+    Cacheable cacheable = route.getCacheable();
+    if (cacheable == null || maxSize == 0 || !ETags.isGetOrHead(req.getMethod()))
+      return resp;
+    if (!cacheable.shared() && hasCredentials(req))
+      return resp;
+    String key = createKey(req, match, request.getQuery(), cacheable.key());
+    CacheStats routeStats = stats.computeIfAbsent(route, r -> new CacheStats());
+    return new CachingResponse(resp, key, route, cacheable.ttl() * 1000, routeStats, maxEntrySize);
+  }
+
+  /**
+   * Sends the response from the cache if it is there.
+   *
+   * @param resp the response returned from {@link #apply}, which may have been
+   *             wrapped again
+   * @return true if the response has been sent, false otherwise
+   * @throws IOException if the response cannot be written
+   */
+  public static boolean sendCached(ServletResponse resp) throws IOException {
+    while (resp instanceof ServletResponseWrapper) {
+      if (resp instanceof CachingResponse)
+        return ((CachingResponse) resp).sendCached();
+      resp = ((ServletResponseWrapper) resp).getResponse();
+    }
+    return false;
+  }
+
+  /**
+   * Checks if the request carries credentials, so its response may belong to
+   * a single user.
+   *
+   * @param req the request of server
+   * @return true if the request has an {@code Authorization} header, a cookie
+   *         or a principal, false otherwise
+   */
+  static boolean hasCredentials(HttpServletRequest req) {
+    return req.getHeader("Authorization") != null || req.getHeader("Cookie") != null
+        || req.getUserPrincipal() != null;
+  }
+
+  /**
+   * Builds the cache key from the route, its params, the query and the selected
+   * headers. The query is sorted so that the order of its items does not
+   * matter, and the responses in CBOR are kept apart from the ones in JSON.
+   *
+   * @param req     the request of server
+   * @param match   the matched route with its params
+   * @param query   the query map of the request
+   * @param headers the names of the headers to add
+   * @return the cache key
+   */
+  static String createKey(HttpServletRequest req, RouteMatch match, Map<String, String> query,
+      String[] headers) {
+    StringBuilder key = new StringBuilder(match.getRoute().getRoute());
+    for (int i = 0; i < match.getParamCount(); i++)
+      key.append('\0').append(match.getParam(i));
+    key.append('\1');
+    for (Map.Entry<String, String> item : new TreeMap<>(query).entrySet())
+      key.append(item.getKey()).append('=').append(item.getValue()).append('\0');
+    for (String header : headers) {
+      String value = req.getHeader(header);
+      key.append('\1').append(value == null ? "" : value);
+    }
+    if (Cbor.isAccepted(req))
+      key.append("\2cbor");
+    return key.toString();
+  }
+
+  /**
+   * Gets the values of the {@code Vary} header set on the response, so they
+   * can be sent again with a kept copy of its body.
+   *
+   * @param resp the response of server
+   * @return the values of the header
+   */
+  static String[] getVary(HttpServletResponse resp) {
+    return resp.getHeaders("Vary").toArray(new String[0]);
+  }
+
+  /**
+   * Adds the kept values of the {@code Vary} header which the response does
+   * not have yet. The ones added before the route method is invoked, such as
+   * {@code Accept-Encoding}, are already there.
+   *
+   * @param resp the response of server
+   * @param vary the kept values of the header
+   */
+  static void addVary(HttpServletResponse resp, String[] vary) {
+    Collection<String> current = resp.getHeaders("Vary");
+    for (String value : vary) {
+      if (!current.contains(value))
+        resp.addHeader("Vary", value);
+    }
+  }
+
+  /**
+   * Gets a response from the cache.
+   *
+   * @param key the cache key
+   * @return the kept response, null if it is not there or has expired
+   */
+  static Entry get(String key) {
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+        entries.remove(key);
+        size -= entry.size;
+        return null;
+      }
+      return entry;
+    }
+  }
+
+  /**
+   * Keeps a response in the cache, and removes the least recently used
+   * responses if the cache is full.
+   *
+   * @param key   the cache key
+   * @param entry the response to keep
+   */
+  static void put(String key, Entry entry) {
+    if (entry.size > maxSize)
+      return;
+    synchronized (entries) {
+      Entry old = entries.put(key, entry);
+      if (old != null)
+        size -= old.size;
+      size += entry.size;
+
+      Iterator<Entry> iterator = entries.values().iterator();
+      while (size > maxSize && iterator.hasNext()) {
+        size -= iterator.next().size;
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Removes all responses of the routes matching the filter.
+   *
+   * @param filter the filter of routes
+   * @return the number of removed responses
+   */
+  public static int evict(Predicate<Route> filter) {
+    int count = 0;
+    synchronized (entries) {
+      Iterator<Entry> iterator = entries.values().iterator();
+      while (iterator.hasNext()) {
+        Entry entry = iterator.next();
+        if (filter.test(entry.route)) {
+          size -= entry.size;
+          iterator.remove();
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Removes all responses in the cache.
+   */
+  public static void clear() {
+    synchronized (entries) {
+      entries.clear();
+      size = 0;
+    }
+  }
+
+  /**
+   * Gets the hits and misses of a route.
+   *
+   * @param route the route to get
+   * @return the stats of the route, null if the route is not cached or has not
+   *         been requested
+   */
+  public static CacheStats getStats(Route route) {
+    return stats.get(route);
+  }
+
+  /**
+   * Gets the total size of the kept responses.
+   *
+   * @return the size in bytes
+   */
+  public static long getSize() {
+    synchronized (entries) {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package com.vnexos.sema.http;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Contains the counters and the latency histogram of a route.
+ *
+ * <p>
+ * All counters are {@code LongAdder}s, so the requests handled at the same
+ * time on many threads do not contend on them.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see MeteredResponse
+ */
+public class RouteMetrics {
+  private static final String[] STATUS_CLASSES = { "1xx", "2xx", "3xx", "4xx", "5xx" };
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder[] statuses = new LongAdder[STATUS_CLASSES.length];
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  /**
+   * Constructs empty metrics.
+   */
+  public RouteMetrics() {
+    for (int i = 0; i < statuses.length; i++)
+      statuses[i] = new LongAdder();
+  }
+
+  /**
+   * Gets the latency histogram of the route.
+   *
+   * @return the histogram of durations in nanoseconds
+   */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * Gets the number of handled requests.
+   *
+   * @return the number of requests
+   */
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  /**
+   * Gets the number of responses with a status code in the given class.
+   *
+   * @param statusClass the class of status code, from 1 for {@code 1xx} to 5
+   *                    for {@code 5xx}
+   * @return the number of responses
+   */
+  public long getStatusCount(int statusClass) {
+    if (statusClass < 1 || statusClass > statuses.length)
+      return 0;
+    return statuses[statusClass - 1].sum();
+  }
+
+  /**
+   * Gets the number of bytes of the request bodies, as told by their
+   * {@code Content-Length} headers.
+   *
+   * @return the number of bytes received
+   */
+  public long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  /**
+   * Gets the number of bytes of the response bodies sent to the clients.
+   *
+   * @return the number of bytes sent
+   */
+  public long getBytesOut() {
+    return bytesOut.sum();
+  }
+
+  /**
+   * Gets the number of requests being handled.
+   *
+   * @return the number of requests in flight
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Counts a request which starts being handled.
+   *
+   * @param contentLength the length of the request body, -1 if it is unknown
+   */
+  public void begin(long contentLength) {
+    inFlight.incrementAndGet();
+    if (contentLength > 0)
+      bytesIn.add(contentLength);
+  }
+
+  /**
+   * Counts a request which has been handled.
+   *
+   * @param status the status code of the response
+   * @param bytes  the number of bytes sent
+   * @param nanos  the time taken in nanoseconds
+   */
+  public void end(int status, long bytes, long nanos) {
+    inFlight.decrementAndGet();
+    requests.increment();
+    int statusClass = status / 100;
+    if (statusClass >= 1 && statusClass <= statuses.length)
+      statuses[statusClass - 1].increment();
+    bytesOut.add(bytes);
+    latency.record(nanos);
+  }
+
+  /**
+   * Converts the metrics into JSON. The durations are in milliseconds.
+   *
+   * @return the JSON object of the metrics
+   */
+  public JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    json.addProperty("requests", getRequests());
+    json.addProperty("inFlight", getInFlight());
+    json.addProperty("bytesIn", getBytesIn());
+    json.addProperty("bytesOut", getBytesOut());
+
+    JsonObject status = new JsonObject();
+    for (int i = 0; i < statuses.length; i++)
+      status.addProperty(STATUS_CLASSES[i], statuses[i].sum());
+    json.add("status", status);
+
+    JsonObject times = new JsonObject();
+    times.addProperty("count", latency.getCount());
+    times.addProperty("mean", toMillis(latency.getMean()));
+    times.addProperty("p50", toMillis(latency.getPercentile(50)));
+    times.addProperty("p90", toMillis(latency.getPercentile(90)));
+    times.addProperty("p99", toMillis(latency.getPercentile(99)));
+    times.addProperty("p999", toMillis(latency.getPercentile(99.9)));
+    times.addProperty("max", toMillis(latency.getMax()));
+    json.add("latency", times);
+    return json;
+  }
+
+  /**
+   * Converts nanoseconds into milliseconds with three decimals.
+   *
+   * @param nanos the duration in nanoseconds
+   * @return the duration in milliseconds
+   */
+  private static double toMillis(double nanos) {
+    return Math.round(nanos / 1000) / 1000.0;
+  }
+}
@@ -11,6 +11,8 @@ package com.vnexos.sema.loader;
  * @author Trần Việt Đăng Quang
  */
 public class ApiException extends Exception {
+  private final int statusCode;
+
   /**
    * Constructs an API exception with error message
    * 
@@ -18,6 +20,7 @@ public class ApiException extends Exception {
    */
   public ApiException(String msg) {
     super(msg);
+    this.statusCode = 500;
   }
 
   /**
@@ -28,5 +31,40 @@ public class ApiException extends Exception {
    */
   public ApiException(String msg, Throwable throwable) {
     super(msg, throwable);
+    this.statusCode = 500;
+  }
+
+  /**
+   * Constructs an API exception with error message and the status code to
+   * respond to the client
+   * 
+   * @param msg        the message of the error
+   * @param statusCode the HTTP status code of the response
+   */
+  public ApiException(String msg, int statusCode) {
+    super(msg);
+    this.statusCode = statusCode;
+  }
+
+  /**
+   * Constructs an API exception with error message, the status code to respond
+   * to the client and its cause
+   * 
+   * @param msg        the message of the error
+   * @param statusCode the HTTP status code of the response
+   * @param throwable  the cause of the exception
+   */
+  public ApiException(String msg, int statusCode, Throwable throwable) {
+    super(msg, throwable);
+    this.statusCode = statusCode;
+  }
+
+  /**
+   * Gets the HTTP status code to respond to the client.
+   * 
+   * @return the status code, 500 by default
+   */
+  public int getStatusCode() {
+    return statusCode;
   }
 }
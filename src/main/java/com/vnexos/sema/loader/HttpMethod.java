@@ -22,6 +22,31 @@ public enum HttpMethod {
     return value;
   }
 
+  /**
+   * Gets the method by its name. Unlike {@code valueOf}, this method does not
+   * throw for the methods which routes cannot have, such as {@code HEAD} and
+   * {@code OPTIONS}.
+   * 
+   * @param value the name of method
+   * @return the method, null if routes cannot have it
+   */
+  public static HttpMethod of(String value) {
+    switch (value) {
+      case "GET":
+        return GET;
+      case "POST":
+        return POST;
+      case "PUT":
+        return PUT;
+      case "PATCH":
+        return PATCH;
+      case "DELETE":
+        return DELETE;
+      default:
+        return null;
+    }
+  }
+
   @Override
   public String toString() {
     String name = getClass().getName();
@@ -19,6 +19,7 @@ import com.vnexos.sema.context.ServerContext;
 import com.vnexos.sema.database.EntityTable;
 import com.vnexos.sema.database.annotations.Entity;
 import com.vnexos.sema.database.helpers.DatabaseContext;
+import com.vnexos.sema.http.ConcurrencyLimiter;
 import com.vnexos.sema.loader.annotations.Controller;
 import com.vnexos.sema.loader.annotations.HttpDelete;
 import com.vnexos.sema.loader.annotations.HttpGet;
@@ -297,7 +298,8 @@ public class Module {
                   : Route.join(path, ((HttpDelete) annotation).value());
               break;
           }
-          ApiController.addApi(routePath, httpRoute.value(), method, instance);
+          ApiController.addApi(routePath, httpRoute.value(), method, instance,
+              ConcurrencyLimiter.forModule(moduleName));
         }
     }
   }
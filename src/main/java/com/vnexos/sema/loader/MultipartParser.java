@@ -0,0 +1,380 @@
+package com.vnexos.sema.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import com.vnexos.sema.Constants;
+import com.vnexos.sema.loader.annotations.Upload;
+
+/**
+ * Reads a {@code multipart/form-data} body straight from the input stream of
+ * the request.
+ *
+ * <p>
+ * The parts are read one by one through a buffer of fixed size. A file part is
+ * kept in memory until it is larger than the {@code multipart.file-threshold}
+ * config, then it is written into a temporary file. A field which is not a
+ * file is always kept in memory, so it is limited by the
+ * {@code multipart.max-field-size} config. So an upload only uses a fixed
+ * amount of memory, whatever the size of its files.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see Part
+ */
+class MultipartParser {
+  private static final int BUFFER_SIZE = 8192;
+  private static final int MAX_HEADER_SIZE = 8192;
+
+  private static final int fileThreshold;
+  private static final int maxFieldSize;
+  private static final long defaultMaxFileSize;
+  private static final long defaultMaxRequestSize;
+  private static final String defaultChecksum;
+  private static final Path tempDir;
+
+  static {
+    fileThreshold = Math.max(0, Constants.getInteger("multipart.file-threshold", 65536));
+    maxFieldSize = Math.max(1, Constants.getInteger("multipart.max-field-size", 65536));
+    defaultMaxFileSize = Constants.getLong("multipart.max-file-size", 0);
+    defaultMaxRequestSize = Constants.getLong("multipart.max-request-size", 104857600);
+    defaultChecksum = Constants.getString("multipart.checksum", "");
+    String dir = Constants.getString("multipart.temp-dir", "");
+    tempDir = dir.isBlank() ? Paths.get(System.getProperty("java.io.tmpdir")) : Paths.get(dir);
+  }
+
+  private final InputStream input;
+  private final byte[] delimiter;
+  private final byte[] buffer;
+  private final long maxFileSize;
+  private final long maxRequestSize;
+  private final String checksum;
+  private int start = 0;
+  private int end = 0;
+  private long total = 0;
+
+  /**
+   * Constructs a parser of a body.
+   *
+   * @param input    the input stream of the body
+   * @param boundary the boundary in the content type
+   * @param upload   the limits of the route, null to use the config
+   */
+  MultipartParser(InputStream input, String boundary, Upload upload) {
+    this.input = input;
+    this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+    this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+    this.maxFileSize = upload != null && upload.maxFileSize() >= 0 ? upload.maxFileSize() : defaultMaxFileSize;
+    this.maxRequestSize = upload != null && upload.maxRequestSize() >= 0
+        ? upload.maxRequestSize()
+        : defaultMaxRequestSize;
+    this.checksum = upload != null && !upload.checksum().isEmpty() ? upload.checksum() : defaultChecksum;
+
+    // The first boundary has no line break before it
+    buffer[0] = '\r';
+    buffer[1] = '\n';
+    end = 2;
+  }
+
+  /**
+   * Gets the boundary from the content type of the request.
+   *
+   * @param contentType the content type of the request
+   * @return the boundary, null if there is none
+   */
+  static String getBoundary(String contentType) {
+    for (String param : contentType.split(";")) {
+      param = param.trim();
+      if (param.regionMatches(true, 0, "boundary=", 0, 9)) {
+        String boundary = param.substring(9);
+        if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\""))
+          boundary = boundary.substring(1, boundary.length() - 1);
+        return boundary.isEmpty() ? null : boundary;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads all parts of the body. The fields which are not files are put into
+   * the given map, and the file parts are added into the given list.
+   *
+   * @param fields the map of fields
+   * @param files  the list of file parts
+   * @throws ApiException if the body is invalid or too large
+   * @throws IOException  if the body cannot be read
+   */
+  void parse(Map<String, String> fields, List<Part> files) throws ApiException, IOException {
+    // Skip the preamble
+    readBody(OutputStream.nullOutputStream(), -1, null);
+
+    while (true) {
+      int first = readByte();
+      int second = readByte();
+      if (first == '-' && second == '-')
+        return;
+      if (first != '\r' || second != '\n')
+        throw new ApiException("Invalid multipart body", 400);
+
+      Map<String, String> headers = readHeaders();
+      String disposition = headers.getOrDefault("content-disposition", "");
+      String name = getParam(disposition, "name");
+      String fileName = getParam(disposition, "filename");
+      String contentType = headers.get("content-type");
+      if (name == null)
+        throw new ApiException("Invalid multipart body", 400);
+
+      if (fileName == null && contentType == null) {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        readBody(value, maxFieldSize, name);
+        fields.put(name, value.toString(StandardCharsets.UTF_8).trim());
+      } else {
+        files.add(readFile(name, fileName, contentType));
+      }
+    }
+  }
+
+  /**
+   * Reads a file part, which is moved into a temporary file when it is larger
+   * than the threshold.
+   *
+   * @param name        the name of the part
+   * @param fileName    the name of the submitted file
+   * @param contentType the content type of the part
+   * @return the file part
+   * @throws ApiException if the part is too large
+   * @throws IOException  if the part cannot be read or saved
+   */
+  private Part readFile(String name, String fileName, String contentType) throws ApiException, IOException {
+    Checksum crc = null;
+    MessageDigest digest = null;
+    if (checksum.equalsIgnoreCase("CRC32C")) {
+      crc = new CRC32C();
+    } else if (!checksum.isEmpty()) {
+      try {
+        digest = MessageDigest.getInstance(checksum);
+      } catch (NoSuchAlgorithmException e) {
+        throw new ApiException("Unknown checksum algorithm `" + checksum + "`", e);
+      }
+    }
+
+    SpoolStream spool = new SpoolStream(crc, digest);
+    try {
+      readBody(spool, maxFileSize, name);
+      spool.close();
+    } catch (ApiException | IOException | RuntimeException e) {
+      spool.close();
+      if (spool.file != null)
+        Files.deleteIfExists(spool.file);
+      throw e;
+    }
+
+    String hash = null;
+    if (crc != null)
+      hash = String.format("%08x", crc.getValue());
+    else if (digest != null)
+      hash = HexFormat.of().formatHex(digest.digest());
+    byte[] data = spool.file == null ? spool.memory.toByteArray() : null;
+    return new Part(name, fileName, contentType, data, spool.file, spool.size, hash);
+  }
+
+  /**
+   * Reads the content of a part until the next boundary.
+   *
+   * @param output  the stream to write the content into
+   * @param maxSize the maximum size of the content, not checked if it is not
+   *                positive
+   * @param name    the name of the part for the error message
+   * @throws ApiException if the part or the body is too large
+   * @throws IOException  if the body ends before the boundary
+   */
+  private void readBody(OutputStream output, long maxSize, String name) throws ApiException, IOException {
+    long size = 0;
+    while (true) {
+      int index = indexOfDelimiter();
+      int stop = index >= 0 ? index : Math.max(start, end - delimiter.length + 1);
+      int length = stop - start;
+      if (length > 0) {
+        size += length;
+        if (maxSize > 0 && size > maxSize)
+          throw new ApiException("Part `" + name + "` is too large", 413);
+        output.write(buffer, start, length);
+        start = stop;
+      }
+      if (index >= 0) {
+        start += delimiter.length;
+        return;
+      }
+      if (!fill())
+        throw new ApiException("Invalid multipart body", 400);
+    }
+  }
+
+  /**
+   * Reads the headers of a part, whose names are in lower case.
+   *
+   * @return the headers of the part
+   * @throws ApiException if the headers are invalid or too large
+   * @throws IOException  if the body cannot be read
+   */
+  private Map<String, String> readHeaders() throws ApiException, IOException {
+    Map<String, String> headers = new HashMap<>();
+    StringBuilder line = new StringBuilder();
+    int size = 0;
+    while (true) {
+      int b = readByte();
+      if (++size > MAX_HEADER_SIZE)
+        throw new ApiException("Invalid multipart body", 400);
+      if (b != '\n') {
+        if (b != '\r')
+          line.append((char) b);
+        continue;
+      }
+      if (line.length() == 0)
+        return headers;
+      int colon = line.indexOf(":");
+      if (colon > 0)
+        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+      line.setLength(0);
+    }
+  }
+
+  /**
+   * Gets a param of the {@code Content-Disposition} header. The value is
+   * decoded in UTF-8, as browsers send the names of files.
+   *
+   * @param header the value of the header
+   * @param name   the name of param
+   * @return the value of param, null if there is none
+   */
+  private static String getParam(String header, String name) {
+    for (String param : header.split(";")) {
+      param = param.trim();
+      int equal = param.indexOf('=');
+      if (equal < 0 || !param.substring(0, equal).trim().equalsIgnoreCase(name))
+        continue;
+      String value = param.substring(equal + 1).trim();
+      if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+        value = value.substring(1, value.length() - 1);
+      return new String(value.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+    return null;
+  }
+
+  /**
+   * Finds the delimiter in the buffer.
+   *
+   * @return the index of the delimiter, -1 if it is not found
+   */
+  private int indexOfDelimiter() {
+    int last = end - delimiter.length;
+    outer: for (int i = start; i <= last; i++) {
+      for (int j = 0; j < delimiter.length; j++)
+        if (buffer[i + j] != delimiter[j])
+          continue outer;
+      return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Reads a byte from the body.
+   *
+   * @return the byte
+   * @throws ApiException if the body ends
+   * @throws IOException  if the body cannot be read
+   */
+  private int readByte() throws ApiException, IOException {
+    if (start == end && !fill())
+      throw new ApiException("Invalid multipart body", 400);
+    return buffer[start++] & 0xFF;
+  }
+
+  /**
+   * Moves the unread bytes to the beginning of the buffer and reads more bytes
+   * from the body.
+   *
+   * @return true if more bytes are read, false if the body ends
+   * @throws ApiException if the body is too large
+   * @throws IOException  if the body cannot be read
+   */
+  private boolean fill() throws ApiException, IOException {
+    if (start > 0) {
+      System.arraycopy(buffer, start, buffer, 0, end - start);
+      end -= start;
+      start = 0;
+    }
+    int count = input.read(buffer, end, buffer.length - end);
+    if (count <= 0)
+      return false;
+    total += count;
+    if (maxRequestSize > 0 && total > maxRequestSize)
+      throw new ApiException("Request body is too large", 413);
+    end += count;
+    return true;
+  }
+
+  /**
+   * The output stream which keeps the content in memory until it is larger than
+   * the threshold, then moves it into a temporary file.
+   */
+  private static class SpoolStream extends OutputStream {
+    private final Checksum crc;
+    private final MessageDigest digest;
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private OutputStream fileOutput;
+    private Path file;
+    private long size = 0;
+
+    SpoolStream(Checksum crc, MessageDigest digest) {
+      this.crc = crc;
+      this.digest = digest;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (crc != null)
+        crc.update(b, off, len);
+      if (digest != null)
+        digest.update(b, off, len);
+      size += len;
+
+      if (fileOutput == null && size > fileThreshold) {
+        file = Files.createTempFile(tempDir, "sema-", ".part");
+        fileOutput = Files.newOutputStream(file);
+        memory.writeTo(fileOutput);
+        memory = null;
+      }
+      if (fileOutput != null)
+        fileOutput.write(b, off, len);
+      else
+        memory.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (fileOutput != null)
+        fileOutput.close();
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package com.vnexos.sema.loader;
+
+/**
+ * Represents the way to get the value of a parameter of a route method from the
+ * request.
+ *
+ * <p>
+ * Binders are compiled once when the route is created, so handling a request
+ * only runs the binders without reflecting the route method again.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see ParamBinders
+ * @see Route
+ */
+@FunctionalInterface
+interface ParamBinder {
+  /**
+   * Gets the value of the parameter from the request.
+   *
+   * @param match   the matched route with its params
+   * @param request the view of the request
+   * @return the value of the parameter
+   * @throws ApiException if the value cannot be get from the request
+   */
+  Object bind(RouteMatch match, RequestView request) throws ApiException;
+}
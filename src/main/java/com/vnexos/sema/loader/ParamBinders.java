@@ -0,0 +1,202 @@
+package com.vnexos.sema.loader;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Parameter;
+import java.util.List;
+import java.util.UUID;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.vnexos.sema.Constants;
+import com.vnexos.sema.loader.annotations.FromBody;
+import com.vnexos.sema.loader.annotations.FromQuery;
+import com.vnexos.sema.loader.annotations.FromRoute;
+import com.vnexos.sema.util.ClassUtils;
+import com.vnexos.sema.util.Mapper;
+
+/**
+ * Compiles the parameters of route methods into {@link ParamBinder}.
+ *
+ * <p>
+ * All the checks on annotations and types of a parameter are done here once,
+ * and the returned binder only does the work needed for that parameter.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see ParamBinder
+ */
+class ParamBinders {
+  private static final Gson gson = Constants.gson;
+
+  /**
+   * Private constructor to avoid creating an instance of this class
+   */
+  private ParamBinders() {
+  }
+
+  /**
+   * Represents the way to convert a string from the request into the type of a
+   * parameter.
+   */
+  @FunctionalInterface
+  private interface ValueParser {
+    Object parse(String value);
+  }
+
+  /**
+   * Compiles a parameter of a route method.
+   *
+   * @param parameter  the parameter to compile
+   * @param paramNames the names of the {@code &#123;**&#125;} parts of the route
+   *                   in order
+   * @return the binder of the parameter
+   */
+  static ParamBinder compile(Parameter parameter, List<String> paramNames) {
+    Class<?> type = parameter.getType();
+    String name = parameter.getName();
+    Object defaultValue = getDefaultValue(type);
+
+    if (parameter.getAnnotations().length > 1)
+      return constant(defaultValue);
+
+    if (parameter.getAnnotation(FromRoute.class) != null) {
+      int index = paramNames.indexOf(name);
+      if (index < 0)
+        return constant(defaultValue);
+      ValueParser parser = createParser(type);
+      return (match, request) -> parse(parser, match.getParam(index), name, defaultValue);
+    }
+
+    if (parameter.getAnnotation(FromQuery.class) != null) {
+      if (ClassUtils.isPrimitive(type) || type == String.class || type == UUID.class || type.isEnum()) {
+        ValueParser parser = createParser(type);
+        return (match, request) -> parse(parser, request.getQuery().get(name), name, defaultValue);
+      }
+      return (match, request) -> Mapper.map(request.getQuery(), type);
+    }
+
+    if (parameter.getAnnotation(FromBody.class) != null) {
+      if (type == Part.class)
+        return (match, request) -> selectPart(request.getBody().getParts(), name);
+      if (ClassUtils.isPrimitive(type) || type == String.class)
+        return constant(defaultValue);
+      TypeAdapter<?> adapter = Mapper.getAdapter(type);
+      return (match, request) -> request.getBody().read(adapter);
+    }
+
+    return constant(defaultValue);
+  }
+
+  /**
+   * Checks if the binder of the parameter reads the body into an object.
+   *
+   * @param parameter the parameter to check
+   * @return true if the parameter reads the body, false otherwise
+   */
+  static boolean readsBody(Parameter parameter) {
+    Class<?> type = parameter.getType();
+    return parameter.getAnnotations().length == 1
+        && parameter.getAnnotation(FromBody.class) != null
+        && type != Part.class
+        && !ClassUtils.isPrimitive(type)
+        && type != String.class;
+  }
+
+  /**
+   * Creates a binder which always gives the same value.
+   *
+   * @param value the value to give
+   * @return the binder
+   */
+  private static ParamBinder constant(Object value) {
+    return (match, request) -> value;
+  }
+
+  /**
+   * Gets the value of a type when nothing is given, which is zero for primitive
+   * types and null otherwise.
+   *
+   * @param type the type to process
+   * @return the default value of type
+   */
+  private static Object getDefaultValue(Class<?> type) {
+    if (!type.isPrimitive() || type == void.class)
+      return null;
+    return Array.get(Array.newInstance(type, 1), 0);
+  }
+
+  /**
+   * Creates a parser for the given type. The common types are parsed directly,
+   * while the others are parsed by Gson.
+   *
+   * @param type the type to parse into
+   * @return the parser of type
+   */
+  private static ValueParser createParser(Class<?> type) {
+    if (type == String.class)
+      return value -> value;
+    if (type == int.class || type == Integer.class)
+      return Integer::valueOf;
+    if (type == long.class || type == Long.class)
+      return Long::valueOf;
+    if (type == UUID.class)
+      return UUID::fromString;
+    if (type.isEnum())
+      return value -> toEnum(type, value);
+    return value -> gson.fromJson(value, type);
+  }
+
+  /**
+   * Gets the constant of an enum by its name.
+   *
+   * @param type  the type of enum
+   * @param value the name of constant
+   * @return the constant of enum
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static Object toEnum(Class<?> type, String value) {
+    return Enum.valueOf((Class<? extends Enum>) type, value);
+  }
+
+  /**
+   * Parses the value by the parser.
+   *
+   * @param parser       the parser of parameter
+   * @param value        the value get from request
+   * @param name         the name of parameter
+   * @param defaultValue the value to use when there is no value
+   * @return the parsed value
+   * @throws ApiException if the value is invalid
+   */
+  private static Object parse(ValueParser parser, String value, String name, Object defaultValue)
+      throws ApiException {
+    if (value == null)
+      return defaultValue;
+    try {
+      return parser.parse(value);
+    } catch (RuntimeException e) {
+      throw new ApiException("Invalid value of `" + name + "` parameter", 400, e);
+    }
+  }
+
+  /**
+   * Selects the only part which has the given name.
+   *
+   * @param parts the parts given in the {@code multipart} content type
+   * @param name  the name of the part
+   * @return the selected part
+   * @throws ApiException if there is not exactly one part with the name
+   */
+  private static Part selectPart(List<Part> parts, String name) throws ApiException {
+    Part result = null;
+    for (Part part : parts) {
+      if (part.getName().equals(name)) {
+        if (result != null)
+          throw new ApiException("Invalid part parameter");
+        result = part;
+      }
+    }
+    if (result == null)
+      throw new ApiException("Invalid part parameter");
+    return result;
+  }
+}
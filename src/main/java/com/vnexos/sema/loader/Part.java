@@ -1,12 +1,27 @@
 package com.vnexos.sema.loader;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Paths;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Represents a file part of request for multipart content types.
  * 
+ * <p>
+ * A small part is kept in memory, while a large part is kept in a temporary
+ * file which is deleted after the request. To keep the file, move it with
+ * {@link #transferTo(Path)} before the route method returns.
+ * 
  * @author Trần Việt Đăng Quang
  */
 public class Part {
@@ -15,6 +30,10 @@ public class Part {
   private String name;
   private String contentType;
   private long size;
+  private byte[] data;
+  private Path file;
+  private boolean isTemporary;
+  private String checksum;
 
   /**
    * Constructs a Part by jakarta part.
@@ -23,13 +42,50 @@ public class Part {
    * @throws IOException if the input stream cannot be get
    */
   public Part(jakarta.servlet.http.Part part) throws IOException {
-    this.fileName = Paths.get(part.getSubmittedFileName()).getFileName().toString();
+    this.fileName = stripPath(part.getSubmittedFileName());
     this.inputStream = part.getInputStream();
     this.contentType = part.getContentType();
     this.size = part.getSize();
     this.name = part.getName();
   }
 
+  /**
+   * Constructs a Part which has been read from the request.
+   * 
+   * @param name        the name of the part
+   * @param fileName    the name of the submitted file
+   * @param contentType the content type of the part
+   * @param data        the content if it is kept in memory, null otherwise
+   * @param file        the temporary file if the content is kept in it, null
+   *                    otherwise
+   * @param size        the size of the content
+   * @param checksum    the checksum of the content, null if it is not computed
+   */
+  Part(String name, String fileName, String contentType, byte[] data, Path file, long size, String checksum) {
+    this.name = name;
+    this.fileName = stripPath(fileName);
+    this.contentType = contentType;
+    this.data = data;
+    this.file = file;
+    this.isTemporary = file != null;
+    this.size = size;
+    this.checksum = checksum;
+  }
+
+  /**
+   * Removes the folders from the submitted file name. It is done by hand, as
+   * the name is sent by the client and may not be a valid path.
+   * 
+   * @param fileName the submitted file name
+   * @return the name after the last {@code /} or {@code \}, null if there is
+   *         no name
+   */
+  private static String stripPath(String fileName) {
+    if (fileName == null)
+      return null;
+    return fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1);
+  }
+
   /**
    * Gets content type of the part.
    * 
@@ -52,9 +108,112 @@ public class Part {
    * Gets the input stream from the part.
    * 
    * @return instance of input stream
+   * @throws UncheckedIOException if the temporary file cannot be opened
    */
   public InputStream getInputStream() {
-    return inputStream;
+    if (inputStream != null)
+      return inputStream;
+    if (file == null)
+      return new ByteArrayInputStream(data, 0, (int) size);
+    try {
+      return Files.newInputStream(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Opens a channel to read the content of the part.
+   * 
+   * @return the channel of the content
+   * @throws IOException if the temporary file cannot be opened
+   */
+  public ReadableByteChannel getChannel() throws IOException {
+    if (file != null)
+      return FileChannel.open(file, StandardOpenOption.READ);
+    return Channels.newChannel(getInputStream());
+  }
+
+  /**
+   * Writes the content of the part into a channel. A part kept in a temporary
+   * file is copied by the operating system when the channel allows it.
+   * 
+   * @param target the channel to write into
+   * @return the number of written bytes
+   * @throws IOException if the content cannot be written
+   */
+  public long transferTo(WritableByteChannel target) throws IOException {
+    if (file != null) {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        long position = 0;
+        long length = channel.size();
+        while (position < length)
+          position += channel.transferTo(position, length - position, target);
+        return position;
+      }
+    }
+    if (data != null) {
+      ByteBuffer buffer = ByteBuffer.wrap(data, 0, (int) size);
+      while (buffer.hasRemaining())
+        target.write(buffer);
+      return size;
+    }
+    try (ReadableByteChannel channel = getChannel()) {
+      long count = 0;
+      ByteBuffer buffer = ByteBuffer.allocate(8192);
+      while (channel.read(buffer) >= 0) {
+        buffer.flip();
+        while (buffer.hasRemaining())
+          count += target.write(buffer);
+        buffer.clear();
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Saves the content of the part into a file. A part kept in a temporary file
+   * is moved without copying, and the file is not deleted after the request.
+   * 
+   * @param target the file to save into, which is replaced if it exists
+   * @throws IOException if the content cannot be saved
+   */
+  public void transferTo(Path target) throws IOException {
+    if (file != null && isTemporary) {
+      try {
+        Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        // The target is on another file system
+        Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+      file = target;
+      isTemporary = false;
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      transferTo(channel);
+    }
+  }
+
+  /**
+   * Checks if the content of the part is kept in memory.
+   * 
+   * @return true if the content is in memory, false if it is in a file
+   */
+  public boolean isInMemory() {
+    return file == null;
+  }
+
+  /**
+   * Gets the checksum of the content computed while it was read, in the
+   * algorithm of the {@code multipart.checksum} config or {@code Upload}
+   * annotation.
+   * 
+   * @return the checksum in hex, null if it is not computed
+   */
+  public String getChecksum() {
+    return checksum;
   }
 
   /**
@@ -74,4 +233,17 @@ public class Part {
   public String getName() {
     return name;
   }
+
+  /**
+   * Deletes the temporary file of the part.
+   */
+  void delete() {
+    if (file != null && isTemporary) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        file.toFile().deleteOnExit();
+      }
+    }
+  }
 }
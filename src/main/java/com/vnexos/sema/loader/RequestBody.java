@@ -0,0 +1,319 @@
+package com.vnexos.sema.loader;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.vnexos.sema.http.Cbor;
+import com.vnexos.sema.loader.annotations.Upload;
+import com.vnexos.sema.loader.json.CborParser;
+import com.vnexos.sema.util.Mapper;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Represents the body of a request.
+ *
+ * <p>
+ * Nothing is read from the request until a route asks for it. A JSON body is
+ * read straight from the input stream of the request into the parameter type,
+ * so the whole body never needs to be kept as a string. A body larger than
+ * the maximum size is rejected with the {@code 413} status code.
+ *
+ * <p>
+ * A {@code multipart} body is read by {@link MultipartParser}, and the
+ * temporary files of its parts are deleted when the body is closed.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see ParamBinder
+ */
+public class RequestBody implements AutoCloseable {
+  private final HttpServletRequest request;
+  private final long maxSize;
+  private final Upload upload;
+  private String content;
+  private List<Part> parts;
+  private boolean consumed = false;
+
+  /**
+   * Constructs a body which is read from the request.
+   *
+   * @param request the request of server
+   * @param maxSize the maximum size of the body in bytes, no limit if it is not
+   *                positive
+   */
+  public RequestBody(HttpServletRequest request, long maxSize) {
+    this(request, maxSize, null);
+  }
+
+  /**
+   * Constructs a body which is read from the request, with the limits of the
+   * {@code multipart} content type for a route.
+   *
+   * @param request the request of server
+   * @param maxSize the maximum size of the body in bytes, no limit if it is not
+   *                positive
+   * @param upload  the limits of the {@code multipart} body, null to use the
+   *                config
+   */
+  public RequestBody(HttpServletRequest request, long maxSize, Upload upload) {
+    this.request = request;
+    this.maxSize = maxSize;
+    this.upload = upload;
+  }
+
+  /**
+   * Constructs a body which has already been read.
+   *
+   * @param content the body in JSON
+   * @param parts   the parts given in the {@code multipart} content type
+   */
+  public RequestBody(String content, List<Part> parts) {
+    this.request = null;
+    this.maxSize = 0;
+    this.upload = null;
+    this.content = content == null ? "" : content;
+    this.parts = parts == null ? new ArrayList<>() : parts;
+  }
+
+  /**
+   * Checks if the body is in the {@code multipart} content type.
+   *
+   * @return true if the body is multipart, false otherwise
+   */
+  public boolean isMultipart() {
+    if (request == null)
+      return false;
+    String contentType = request.getContentType();
+    return contentType != null && contentType.startsWith("multipart/form-data");
+  }
+
+  /**
+   * Checks if the body is in the {@code application/cbor} content type.
+   *
+   * @return true if the body is CBOR, false otherwise
+   */
+  public boolean isCbor() {
+    return request != null && Cbor.isCbor(request.getContentType());
+  }
+
+  /**
+   * Reads the body into an object by the given adapter.
+   *
+   * @param <T>     the type to read
+   * @param adapter the adapter of the type
+   * @return the read object, null if the body is empty
+   * @throws ApiException if the body is invalid or too large
+   */
+  public <T> T read(TypeAdapter<T> adapter) throws ApiException {
+    try {
+      if (content == null && !isMultipart()) {
+        if (consumed)
+          throw new ApiException("Request body has already been read");
+        consumed = true;
+        if (isCbor()) {
+          JsonElement tree = readCbor();
+          return tree == null ? null : adapter.fromJsonTree(tree);
+        }
+        try (Reader reader = openReader()) {
+          return Mapper.read(reader, adapter);
+        }
+      }
+      return Mapper.read(getContent(), adapter);
+    } catch (BodyTooLargeException e) {
+      throw new ApiException("Request body is too large", 413, e);
+    } catch (IOException | JsonParseException | IllegalStateException e) {
+      throw new ApiException(isCbor() ? "Invalid cbor syntax" : "Invalid json syntax", 400, e);
+    }
+  }
+
+  /**
+   * Gets the whole body as a string. For the {@code multipart} content type,
+   * the fields which are not files are given as a JSON object.
+   *
+   * @return the body in JSON
+   * @throws ApiException if the body cannot be read or is too large
+   */
+  public String getContent() throws ApiException {
+    if (content != null)
+      return content;
+    if (isMultipart()) {
+      parseParts();
+      return content;
+    }
+    if (consumed)
+      throw new ApiException("Request body has already been read");
+    consumed = true;
+
+    if (isCbor()) {
+      try {
+        JsonElement tree = readCbor();
+        content = tree == null ? "" : tree.toString();
+        return content;
+      } catch (BodyTooLargeException e) {
+        throw new ApiException("Request body is too large", 413, e);
+      } catch (IOException e) {
+        throw new ApiException("Invalid cbor syntax", 400, e);
+      }
+    }
+    try (Reader reader = openReader()) {
+      StringWriter writer = new StringWriter();
+      reader.transferTo(writer);
+      content = writer.toString();
+      return content;
+    } catch (BodyTooLargeException e) {
+      throw new ApiException("Request body is too large", 413, e);
+    } catch (IOException e) {
+      throw new ApiException("Cannot read request body", e);
+    }
+  }
+
+  /**
+   * Gets the file parts of the {@code multipart} content type.
+   *
+   * @return the list of file parts, empty if the body is not multipart
+   * @throws ApiException if the parts cannot be read
+   */
+  public List<Part> getParts() throws ApiException {
+    if (parts == null) {
+      if (isMultipart())
+        parseParts();
+      else
+        parts = new ArrayList<>();
+    }
+    return parts;
+  }
+
+  /**
+   * Opens a reader of the body in the character encoding of the request.
+   *
+   * @return the reader of the body
+   * @throws IOException if the body is too large or the stream cannot be get
+   */
+  private Reader openReader() throws IOException {
+    String encoding = request.getCharacterEncoding();
+    Charset charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+    return new BufferedReader(new InputStreamReader(openStream(), charset));
+  }
+
+  /**
+   * Reads the CBOR body into a tree.
+   *
+   * @return the tree of the body, null if the body is empty
+   * @throws IOException if the body is too large or is not valid CBOR
+   */
+  private JsonElement readCbor() throws IOException {
+    try (InputStream input = openStream()) {
+      return CborParser.parse(input);
+    }
+  }
+
+  /**
+   * Opens the input stream of the body, which fails when more than the maximum
+   * size is read.
+   *
+   * @return the stream of the body
+   * @throws IOException if the body is too large or the stream cannot be get
+   */
+  private InputStream openStream() throws IOException {
+    long length = request.getContentLengthLong();
+    if (maxSize > 0 && length > maxSize)
+      throw new BodyTooLargeException();
+
+    InputStream input = request.getInputStream();
+    if (maxSize > 0)
+      input = new LimitedInputStream(input, maxSize);
+    return input;
+  }
+
+  /**
+   * Converts the parts of the {@code multipart} content type into the fields in
+   * JSON and the file parts. The parts are read straight from the input stream,
+   * and large files are kept in temporary files.
+   *
+   * @throws ApiException if the parts cannot be read
+   */
+  private void parseParts() throws ApiException {
+    if (consumed)
+      throw new ApiException("Request body has already been read");
+    consumed = true;
+
+    String boundary = MultipartParser.getBoundary(request.getContentType());
+    if (boundary == null)
+      throw new ApiException("Invalid multipart body", 400);
+
+    Map<String, String> data = new HashMap<>();
+    List<Part> fileParts = new ArrayList<>();
+    parts = fileParts;
+    try (InputStream input = request.getInputStream()) {
+      new MultipartParser(input, boundary, upload).parse(data, fileParts);
+    } catch (IOException e) {
+      throw new ApiException("Cannot read request parts", e);
+    }
+    content = Mapper.map(data, String.class);
+  }
+
+  /**
+   * Deletes the temporary files of the parts which have not been moved by the
+   * route method.
+   */
+  @Override
+  public void close() {
+    if (parts != null)
+      for (Part part : parts)
+        part.delete();
+  }
+
+  /**
+   * Signals that the body is larger than the maximum size.
+   */
+  private static class BodyTooLargeException extends IOException {
+    private static final long serialVersionUID = 4187006386390264721L;
+
+    BodyTooLargeException() {
+      super("Request body is too large");
+    }
+  }
+
+  /**
+   * An input stream which fails when more than the given number of bytes are
+   * read.
+   */
+  private static class LimitedInputStream extends FilterInputStream {
+    private long remaining;
+
+    LimitedInputStream(InputStream in, long maxSize) {
+      super(in);
+      this.remaining = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0 && --remaining < 0)
+        throw new BodyTooLargeException();
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int count = super.read(b, off, len);
+      if (count > 0 && (remaining -= count) < 0)
+        throw new BodyTooLargeException();
+      return count;
+    }
+  }
+}
@@ -0,0 +1,203 @@
+package com.vnexos.sema.loader;
+
+import java.security.Principal;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.vnexos.sema.Constants;
+
+/**
+ * Represents the request being handled by a route method, which the controller
+ * can read without sharing any field between the requests.
+ *
+ * <p>
+ * The context is bound to the thread invoking the route method, and only
+ * while it is running. A route method which continues on another thread, such
+ * as an asynchronous route, must capture the context with {@link #current()}
+ * first and run the continuation with one of the {@code wrap} methods:
+ *
+ * <pre>
+ * &#64;HttpGet("/orders")
+ * public CompletionStage&lt;ApiResponse&lt;List&lt;Order&gt;&gt;&gt; getOrders() {
+ *   RequestContext context = RequestContext.current();
+ *   return CompletableFuture.supplyAsync(context.wrap(() -&gt; {
+ *     // ---- getHeader() still reads the headers of this request
+ *   }));
+ * }
+ * </pre>
+ *
+ * @author Trần Việt Đăng Quang
+ * @see com.vnexos.sema.loader.interfaces.ControllerBase
+ */
+public final class RequestContext {
+  private static final ThreadLocal<RequestContext> current = new ThreadLocal<>();
+  private static final String idHeader;
+  private static final String idPrefix;
+  private static final AtomicLong nextId = new AtomicLong();
+
+  static {
+    idHeader = Constants.getString("request.id-header", "X-Request-Id");
+    idPrefix = Long.toHexString(ThreadLocalRandom.current().nextLong() & 0xffffffffL) + "-";
+  }
+
+  private final RequestView request;
+  private final long deadline;
+  private String id;
+
+  /**
+   * Constructs the context of a request.
+   *
+   * @param request  the view of the request
+   * @param deadline the time in milliseconds since the epoch by which the
+   *                 route should answer
+   */
+  RequestContext(RequestView request, long deadline) {
+    this.request = request;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Gets the context of the request handled by the current thread.
+   *
+   * @return the context, null if the thread is not running a route method
+   */
+  public static RequestContext current() {
+    return current.get();
+  }
+
+  /**
+   * Gets the id of the request. It is read from the {@code request.id-header}
+   * header if the client sent it, otherwise an id unique to this server is
+   * created the first time it is asked for.
+   *
+   * @return the id of the request
+   */
+  public String getId() {
+    if (id == null) {
+      String header = idHeader.isEmpty() ? null : request.getHeader(idHeader);
+      id = header != null && !header.isBlank() ? header : idPrefix + Long.toHexString(nextId.incrementAndGet());
+    }
+    return id;
+  }
+
+  /**
+   * Gets the time by which the route should answer. An asynchronous route is
+   * timed out after it.
+   *
+   * @return the time in milliseconds since the epoch, {@code Long.MAX_VALUE}
+   *         if the route has no timeout
+   */
+  public long getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * Gets the time left before the deadline, which can be given to the calls
+   * made by the route method.
+   *
+   * @return the time in milliseconds, 0 if the deadline has passed
+   */
+  public long getRemaining() {
+    return Math.max(0, deadline - System.currentTimeMillis());
+  }
+
+  /**
+   * Gets the authenticated user of the request.
+   *
+   * @return the user, null if the request is not authenticated
+   */
+  public Principal getPrincipal() {
+    return request.getPrincipal();
+  }
+
+  /**
+   * Gets a header of the request. The name is not case sensitive.
+   *
+   * @param name the name of the header
+   * @return the value of the header, null if there is none
+   */
+  public String getHeader(String name) {
+    return request.getHeader(name);
+  }
+
+  /**
+   * Gets the headers of the request as a map.
+   *
+   * @return the map of headers
+   */
+  public Map<String, String> getHeaders() {
+    return request.getHeaders();
+  }
+
+  /**
+   * Binds the context to the current thread.
+   *
+   * @return the context bound before, which must be given back to
+   *         {@link #detach(RequestContext)}
+   */
+  RequestContext attach() {
+    RequestContext previous = current.get();
+    current.set(this);
+    return previous;
+  }
+
+  /**
+   * Binds back the context which was bound before {@link #attach()}.
+   *
+   * @param previous the value returned from {@link #attach()}
+   */
+  void detach(RequestContext previous) {
+    if (previous == null)
+      current.remove();
+    else
+      current.set(previous);
+  }
+
+  /**
+   * Wraps a task so that it runs with this context on any thread.
+   *
+   * @param task the task to run
+   * @return the wrapped task
+   */
+  public Runnable wrap(Runnable task) {
+    return () -> {
+      RequestContext previous = attach();
+      try {
+        task.run();
+      } finally {
+        detach(previous);
+      }
+    };
+  }
+
+  /**
+   * Wraps a supplier so that it runs with this context on any thread.
+   *
+   * @param <T>      the type of the result
+   * @param supplier the supplier to run
+   * @return the wrapped supplier
+   */
+  public <T> Supplier<T> wrap(Supplier<T> supplier) {
+    return () -> {
+      RequestContext previous = attach();
+      try {
+        return supplier.get();
+      } finally {
+        detach(previous);
+      }
+    };
+  }
+
+  /**
+   * Wraps an executor so that all tasks given to it run with this context.
+   *
+   * @param executor the executor to wrap
+   * @return the wrapped executor
+   */
+  public Executor wrap(Executor executor) {
+    return task -> executor.execute(wrap(task));
+  }
+}
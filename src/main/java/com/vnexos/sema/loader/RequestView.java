@@ -0,0 +1,185 @@
+package com.vnexos.sema.loader;
+
+import java.security.Principal;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.vnexos.sema.loader.annotations.Upload;
+import com.vnexos.sema.util.StringUtils;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Represents the parts of a request which a route method can ask for.
+ *
+ * <p>
+ * Nothing is copied or decoded when the view is created. The query is parsed,
+ * the body is read and the headers are listed only the first time they are
+ * asked for, so a route which does not need them never pays for them.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see ParamBinder
+ */
+public class RequestView implements AutoCloseable {
+  private final HttpServletRequest request;
+  private final long maxBodySize;
+  private final Upload upload;
+  private Map<String, String> query;
+  private Map<String, String> headers;
+  private RequestBody body;
+  private Principal principal;
+
+  /**
+   * Constructs a view of a request.
+   *
+   * @param request     the request of server
+   * @param maxBodySize the maximum size of the body in bytes, no limit if it is
+   *                    not positive
+   * @param upload      the limits of the {@code multipart} body, null to use
+   *                    the config
+   */
+  public RequestView(HttpServletRequest request, long maxBodySize, Upload upload) {
+    this.request = request;
+    this.maxBodySize = maxBodySize;
+    this.upload = upload;
+  }
+
+  /**
+   * Constructs a view of a request which has already been read.
+   *
+   * @param query   the query map of the request
+   * @param body    the body of the request
+   * @param headers the headers of the request
+   */
+  public RequestView(Map<String, String> query, RequestBody body, Map<String, String> headers) {
+    this(query, body, headers, null);
+  }
+
+  /**
+   * Constructs a view of a request which has already been read, made by an
+   * authenticated user.
+   *
+   * @param query     the query map of the request
+   * @param body      the body of the request
+   * @param headers   the headers of the request
+   * @param principal the authenticated user, null if there is none
+   */
+  public RequestView(Map<String, String> query, RequestBody body, Map<String, String> headers,
+      Principal principal) {
+    this.request = null;
+    this.maxBodySize = 0;
+    this.upload = null;
+    this.query = query == null ? Collections.emptyMap() : query;
+    this.body = body;
+    this.headers = headers == null ? Collections.emptyMap() : headers;
+    this.principal = principal;
+  }
+
+  /**
+   * Gets the query of the request, which is parsed the first time.
+   *
+   * @return the query map of the request
+   */
+  public Map<String, String> getQuery() {
+    if (query == null)
+      query = StringUtils.queryToMap(request.getQueryString());
+    return query;
+  }
+
+  /**
+   * Gets the body of the request, which is read when a route asks for its
+   * content.
+   *
+   * @return the body of the request
+   */
+  public RequestBody getBody() {
+    if (body == null)
+      body = request == null ? new RequestBody("", null) : new RequestBody(request, maxBodySize, upload);
+    return body;
+  }
+
+  /**
+   * Gets a header of the request. The name is not case sensitive.
+   *
+   * @param name the name of the header
+   * @return the value of the header, null if there is none
+   */
+  public String getHeader(String name) {
+    if (request != null)
+      return request.getHeader(name);
+    return headers.get(name);
+  }
+
+  /**
+   * Gets the headers of the request as a map. Getting a header from the map
+   * reads it from the request, the headers are only listed when the map is
+   * iterated.
+   *
+   * @return the map of headers
+   */
+  public Map<String, String> getHeaders() {
+    if (headers == null)
+      headers = new HeaderMap(request);
+    return headers;
+  }
+
+  /**
+   * Gets the authenticated user of the request.
+   *
+   * @return the user, null if the request is not authenticated
+   */
+  public Principal getPrincipal() {
+    if (request != null)
+      return request.getUserPrincipal();
+    return principal;
+  }
+
+  /**
+   * Deletes the temporary files of the body if it has been read.
+   */
+  @Override
+  public void close() {
+    if (body != null)
+      body.close();
+  }
+
+  /**
+   * The map of headers which reads from the request.
+   */
+  private static class HeaderMap extends AbstractMap<String, String> {
+    private final HttpServletRequest request;
+    private Map<String, String> entries;
+
+    HeaderMap(HttpServletRequest request) {
+      this.request = request;
+    }
+
+    @Override
+    public String get(Object key) {
+      return key instanceof String ? request.getHeader((String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+      if (entries == null) {
+        Map<String, String> map = new LinkedHashMap<>();
+        Enumeration<String> names = request.getHeaderNames();
+        while (names.hasMoreElements()) {
+          String name = names.nextElement();
+          map.put(name, request.getHeader(name));
+        }
+        entries = Collections.unmodifiableMap(map);
+      }
+      return entries.entrySet();
+    }
+  }
+}
@@ -1,29 +1,37 @@
 package com.vnexos.sema.loader;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Parameter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
 import com.vnexos.sema.ApiResponse;
 import com.vnexos.sema.Constants;
-import com.vnexos.sema.loader.annotations.FromBody;
-import com.vnexos.sema.loader.annotations.FromQuery;
-import com.vnexos.sema.loader.annotations.FromRoute;
-import com.vnexos.sema.loader.interfaces.ControllerBase;
-import com.vnexos.sema.util.ClassUtils;
-import com.vnexos.sema.util.Mapper;
+import com.vnexos.sema.http.ConcurrencyLimiter;
+import com.vnexos.sema.http.RateLimiter;
+import com.vnexos.sema.http.RouteMetrics;
+import com.vnexos.sema.loader.annotations.Cacheable;
+import com.vnexos.sema.loader.annotations.Coalesce;
+import com.vnexos.sema.loader.annotations.ETag;
+import com.vnexos.sema.loader.annotations.RateLimit;
+import com.vnexos.sema.loader.annotations.Timeout;
+import com.vnexos.sema.loader.annotations.Upload;
 
 /**
  * Represents a Route of a Controller.
@@ -33,12 +41,25 @@ import com.vnexos.sema.util.Mapper;
  * @author Trần Việt Đăng Quang
  */
 public class Route {
-  private static final Gson gson = Constants.gson;
   private HttpMethod httpMethod;
   private String route;
   private Method method;
   private List<String> parts;
   private Object instance;
+  private List<String> paramNames;
+  private ParamBinder[] binders;
+  private int bodyReaders;
+  private final MethodHandle handle;
+  private final Exception handleError;
+  private long timeout;
+  private ETag etag;
+  private Cacheable cacheable;
+  private Coalesce coalesce;
+  private Upload upload;
+  private RateLimiter rateLimiter;
+  private ConcurrencyLimiter concurrencyLimiter;
+  private final RouteMetrics metrics = new RouteMetrics();
+  private final ConcurrencyLimiter.Baseline latencyBaseline = new ConcurrencyLimiter.Baseline();
 
   /**
    * Extracts the route into small parts.
@@ -65,6 +86,24 @@ public class Route {
     this.method = method;
     this.parts = analyzeRoute(route);
     this.instance = instance;
+    Timeout annotation = method.getAnnotation(Timeout.class);
+    this.timeout = annotation != null ? annotation.value() : Constants.getInteger("request.async-timeout", 30000);
+    this.etag = method.getAnnotation(ETag.class);
+    this.cacheable = method.getAnnotation(Cacheable.class);
+    this.coalesce = method.getAnnotation(Coalesce.class);
+    this.upload = method.getAnnotation(Upload.class);
+    this.rateLimiter = RateLimiter.create(method.getAnnotation(RateLimit.class));
+    compileBinders();
+
+    MethodHandle compiled = null;
+    Exception error = null;
+    try {
+      compiled = compileHandle(method, instance);
+    } catch (IllegalAccessException | RuntimeException e) {
+      error = e;
+    }
+    this.handle = compiled;
+    this.handleError = error;
   }
 
   /**
@@ -102,6 +141,7 @@ public class Route {
   public void setRoute(String route) {
     this.route = route;
     this.parts = analyzeRoute(route);
+    compileBinders();
   }
 
   /**
@@ -145,58 +185,270 @@ public class Route {
   public ApiResponse<?> invoke(Map<String, String> param, Map<String, String> query, String body, List<Part> parts,
       Map<String, String> headers)
       throws ApiException {
-    final Method method = this.method;
-    List<Object> paramValues = new ArrayList<>();
+    String[] names = paramNames.toArray(new String[0]);
+    String[] values = new String[names.length];
+    for (int i = 0; i < names.length; i++)
+      values[i] = param.get(names[i]);
+    return invoke(new RouteMatch(this, names, values), new RequestView(query, new RequestBody(body, parts), headers));
+  }
 
-    // Process all param of route method
-    for (Parameter parameter : method.getParameters()) {
-      if (parameter.getAnnotations().length > 1)
-        continue;
-      if (parameter.getAnnotation(FromRoute.class) != null) {
-        paramValues.add(gson.fromJson(param.get(parameter.getName()), parameter.getType()));
-      } else if (parameter.getAnnotation(FromQuery.class) != null) {
-        if (ClassUtils.isPrimitive(parameter.getType())) {
-          paramValues.add(gson.fromJson(query.get(parameter.getName()), parameter.getType()));
-        } else if (parameter.getType() == String.class) {
-          paramValues.add(query.get(parameter.getName()));
-        } else
-          paramValues.add(Mapper.map(query, parameter.getType()));
-      } else if (parameter.getAnnotation(FromBody.class) != null) {
-        if (parameter.getType() == Part.class) {
-          List<Part> p = parts.stream().filter(
-              part -> part.getName().equals(parameter.getName())).collect(Collectors.toList());
-          if (p.size() != 1)
-            throw new ApiException("Invalid part parameter");
-
-          paramValues.add(p.get(0));
-        } else if (!ClassUtils.isPrimitive(parameter.getType()) && parameter.getType() != String.class)
-          try {
-
-            paramValues.add(Mapper.map(body, parameter.getType()));
-          } catch (JsonSyntaxException ex) {
-            throw new ApiException("Invalid json syntax", ex);
-          }
-        else
-          paramValues.add(null);
-      } else
-        paramValues.add(null);
+  /**
+   * Invokes the method that handling the route. If the route method returns a
+   * {@code CompletionStage}, this method waits until it completes.
+   * 
+   * @param match   the matched route with its params
+   * @param request the view of the request, which is only read if the route
+   *                method needs it
+   * @return the response returned from the route method after invoke
+   * @throws ApiException if an error occurs while processing a route
+   */
+  public ApiResponse<?> invoke(RouteMatch match, RequestView request) throws ApiException {
+    Object res = call(match, request);
+    if (!(res instanceof CompletionStage))
+      return (ApiResponse<?>) res;
+
+    try {
+      CompletableFuture<?> future = ((CompletionStage<?>) res).toCompletableFuture();
+      return (ApiResponse<?>) (timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get());
+    } catch (TimeoutException e) {
+      throw new ApiException("Route method timed out", 503, e);
+    } catch (ExecutionException e) {
+      // Keep the status of an ApiException which the route method has failed with
+      Throwable cause = e.getCause();
+      if (cause instanceof CompletionException && cause.getCause() != null)
+        cause = cause.getCause();
+      if (cause instanceof ApiException)
+        throw (ApiException) cause;
+      throw new ApiException("Cannot invoke route method", cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ApiException("Route method was interrupted", 503, e);
     }
+  }
+
+  /**
+   * Invokes the method that handling the route without waiting for the
+   * {@code CompletionStage} returned from the route method. The returned stage
+   * fails with {@code TimeoutException} if the route method takes longer than
+   * the timeout of the route.
+   *
+   * <p>
+   * The route method may still be running when the returned stage times out,
+   * so the resources it uses must be kept until {@code onFinished} runs. It
+   * runs once the stage of the route method completes, and is not run if this
+   * method throws.
+   * 
+   * @param match      the matched route with its params
+   * @param request    the view of the request, which is only read if the route
+   *                   method needs it
+   * @param onFinished the callback to run when the route method has finished
+   * @return the stage which completes with the response of the route method
+   * @throws ApiException if an error occurs while processing a route
+   */
+  @SuppressWarnings("unchecked")
+  public CompletionStage<ApiResponse<?>> invokeAsync(RouteMatch match, RequestView request, Runnable onFinished)
+      throws ApiException {
+    Object res = call(match, request);
+    if (!(res instanceof CompletionStage)) {
+      onFinished.run();
+      return CompletableFuture.completedFuture((ApiResponse<?>) res);
+    }
+
+    // Copy the stage so that the timeout does not complete the route's own one
+    CompletableFuture<ApiResponse<?>> result = new CompletableFuture<>();
+    ((CompletionStage<ApiResponse<?>>) res).whenComplete((response, error) -> {
+      onFinished.run();
+      if (error != null)
+        result.completeExceptionally(error);
+      else
+        result.complete(response);
+    });
+    return timeout > 0 ? result.orTimeout(timeout, TimeUnit.MILLISECONDS) : result;
+  }
+
+  /**
+   * Binds the parameters from the request and calls the route method.
+   * 
+   * @param match   the matched route with its params
+   * @param request the view of the request
+   * @return the value returned from the route method
+   * @throws ApiException if an error occurs while processing a route
+   */
+  private Object call(RouteMatch match, RequestView request) throws ApiException {
+    final ParamBinder[] binders = this.binders;
+    Object[] paramValues = new Object[binders.length];
+
+    // The body can only be streamed once, so keep it if many params need it
+    if (bodyReaders > 1)
+      request.getBody().getContent();
+
+    // Process all param of route method
+    for (int i = 0; i < binders.length; i++)
+      paramValues[i] = binders[i].bind(match, request);
 
     // Invoke method and get ApiResponse
-    Object res;
+    if (handle == null)
+      throw new ApiException("Cannot invoke route method", handleError);
+    // Each invocation has its own context, as the controller is shared
+    long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+    RequestContext context = new RequestContext(request, deadline);
+    RequestContext previous = context.attach();
     try {
-      Class<?> controllerBase = instance.getClass().getSuperclass();
-      if (controllerBase == ControllerBase.class) {
-        Field field = controllerBase.getDeclaredField("headers");
-        field.setAccessible(true);
-        field.set(instance, headers);
-      }
-
-      res = method.invoke(instance, paramValues.toArray());
-    } catch (IllegalAccessException | InvocationTargetException | NoSuchFieldException | SecurityException e) {
+      return (Object) handle.invokeExact(paramValues);
+    } catch (ApiException e) {
+      throw e;
+    } catch (Throwable e) {
       throw new ApiException("Cannot invoke route method", e);
+    } finally {
+      context.detach(previous);
+    }
+  }
+
+  /**
+   * Checks if the route method returns a {@code CompletionStage}.
+   * 
+   * @return true if the route is asynchronous, false otherwise
+   */
+  public boolean isAsync() {
+    return CompletionStage.class.isAssignableFrom(method.getReturnType());
+  }
+
+  /**
+   * Gets the timeout of the route when it is asynchronous.
+   * 
+   * @return the timeout in milliseconds, 0 for no timeout
+   */
+  public long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * Gets the {@code ETag} settings of the route.
+   * 
+   * @return the annotation of the route method, null if the route does not use
+   *         {@code ETag}
+   */
+  public ETag getETag() {
+    return etag;
+  }
+
+  /**
+   * Gets the response cache settings of the route.
+   * 
+   * @return the annotation of the route method, null if the route is not cached
+   */
+  public Cacheable getCacheable() {
+    return cacheable;
+  }
+
+  /**
+   * Gets the coalescing settings of the route.
+   * 
+   * @return the annotation of the route method, null if the route is not
+   *         coalesced
+   */
+  public Coalesce getCoalesce() {
+    return coalesce;
+  }
+
+  /**
+   * Gets the limits of the {@code multipart} body of the route.
+   * 
+   * @return the annotation of the route method, null if the route uses the
+   *         config
+   */
+  public Upload getUpload() {
+    return upload;
+  }
+
+  /**
+   * Gets the limiter of requests of the route, from the {@link RateLimit}
+   * annotation or the config.
+   * 
+   * @return the limiter, null if the route is not limited
+   */
+  public RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  /**
+   * Gets the adaptive limiter of invocations of the route.
+   * 
+   * @return the limiter, null if the invocations are not limited
+   */
+  public ConcurrencyLimiter getConcurrencyLimiter() {
+    return concurrencyLimiter;
+  }
+
+  /**
+   * Sets the adaptive limiter of invocations of the route, which is shared by
+   * the routes of its module.
+   * 
+   * @param concurrencyLimiter the limiter to set, null for no limit
+   */
+  public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+    this.concurrencyLimiter = concurrencyLimiter;
+  }
+
+  /**
+   * Gets the latency without load of the route, which its limiter compares
+   * the latencies of the route with.
+   * 
+   * @return the latency baseline of the route
+   */
+  public ConcurrencyLimiter.Baseline getLatencyBaseline() {
+    return latencyBaseline;
+  }
+
+  /**
+   * Gets the metrics of the route, which count its requests and record their
+   * latency.
+   * 
+   * @return the metrics of the route
+   */
+  public RouteMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Binds the route method and its controller into a method handle, which takes
+   * all arguments in an array.
+   *
+   * @param method   the route method
+   * @param instance the controller of the route
+   * @return the method handle
+   * @throws IllegalAccessException if the route method cannot be accessed
+   */
+  private static MethodHandle compileHandle(Method method, Object instance) throws IllegalAccessException {
+    method.setAccessible(true);
+    MethodHandle target = MethodHandles.lookup().unreflect(method);
+    int count = method.getParameterCount();
+
+    if (Modifier.isStatic(method.getModifiers()))
+      target = MethodHandles.dropArguments(target, 0, Object.class);
+    return target
+        .asType(MethodType.genericMethodType(count + 1))
+        .asSpreader(Object[].class, count)
+        .bindTo(instance);
+  }
+
+  /**
+   * Compiles the binders of all parameters of the route method.
+   */
+  private void compileBinders() {
+    paramNames = parts.stream()
+        .filter(part -> part.length() >= 2 && part.startsWith("{") && part.endsWith("}"))
+        .map(part -> part.substring(1, part.length() - 1))
+        .collect(Collectors.toList());
+
+    Parameter[] parameters = method.getParameters();
+    binders = new ParamBinder[parameters.length];
+    bodyReaders = 0;
+    for (int i = 0; i < parameters.length; i++) {
+      binders[i] = ParamBinders.compile(parameters[i], paramNames);
+      if (ParamBinders.readsBody(parameters[i]))
+        bodyReaders++;
     }
-    return (ApiResponse<?>) res;
   }
 
   /**
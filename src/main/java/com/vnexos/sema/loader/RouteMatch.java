@@ -0,0 +1,87 @@
+package com.vnexos.sema.loader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Represents the result of looking up a path inside a {@link RouteTable}.
+ *
+ * <p>
+ * The values of the {@code &#123;**&#125;} parts are kept in the same order as
+ * they appear in the route, so they can be read by position without building a
+ * map.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see RouteTable
+ */
+public class RouteMatch {
+  private final Route route;
+  private final String[] paramNames;
+  private final String[] paramValues;
+
+  /**
+   * Constructs a match of a route.
+   *
+   * @param route       the matched route
+   * @param paramNames  the names of the route params in order
+   * @param paramValues the values of the route params in order
+   */
+  RouteMatch(Route route, String[] paramNames, String[] paramValues) {
+    this.route = route;
+    this.paramNames = paramNames;
+    this.paramValues = paramValues;
+  }
+
+  /**
+   * Gets the matched route.
+   *
+   * @return the route
+   */
+  public Route getRoute() {
+    return route;
+  }
+
+  /**
+   * Gets the number of params in the matched route.
+   *
+   * @return the param count
+   */
+  public int getParamCount() {
+    return paramNames.length;
+  }
+
+  /**
+   * Gets the value of the param at the given position.
+   *
+   * @param index the position of the param in the route
+   * @return the value of the param
+   */
+  public String getParam(int index) {
+    return paramValues[index];
+  }
+
+  /**
+   * Gets the value of the param with the given name.
+   *
+   * @param name the name of the param
+   * @return the value of the param, null if the route does not have the param
+   */
+  public String getParam(String name) {
+    for (int i = 0; i < paramNames.length; i++)
+      if (paramNames[i].equals(name))
+        return paramValues[i];
+    return null;
+  }
+
+  /**
+   * Gets all params of the matched route as a map.
+   *
+   * @return the map of param names and values
+   */
+  public Map<String, String> getParams() {
+    Map<String, String> params = new HashMap<>();
+    for (int i = 0; i < paramNames.length; i++)
+      params.put(paramNames[i], paramValues[i]);
+    return params;
+  }
+}
@@ -0,0 +1,208 @@
+package com.vnexos.sema.loader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stores all routes of the controllers in a segment tree for each HTTP method.
+ *
+ * <p>
+ * Each node of the tree represents a part of a route. A node may have many
+ * static children, which are looked up by their exact value, and a single
+ * {@code &#123;**&#125;} child which accepts any value. When both match, the
+ * static child always wins, and the {@code &#123;**&#125;} child is only tried
+ * when the static branch cannot reach a route. For example, with
+ * {@code /users/me} and {@code /users/{id}}, the path {@code /users/me} goes
+ * to the first route and {@code /users/42} goes to the second one.
+ *
+ * <p>
+ * Routes are added while loading modules, before any request is handled, so
+ * looking up a route does not need any locking.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see Route
+ * @see RouteMatch
+ */
+public class RouteTable {
+  private final Map<HttpMethod, Node> roots = new EnumMap<>(HttpMethod.class);
+  private final List<Route> routes = new CopyOnWriteArrayList<>();
+  private int maxParams = 0;
+
+  /**
+   * Represents a part of routes in the tree.
+   */
+  private static class Node {
+    private Map<String, Node> statics;
+    private Node param;
+    private Route route;
+    private String[] paramNames;
+  }
+
+  /**
+   * Extracts the path into small parts. The trailing slashes are ignored, so
+   * {@code /users/} and {@code /users} have the same parts.
+   *
+   * @param path the path to be analyzed
+   * @return the list of parts in path
+   */
+  private static List<String> analyzePath(String path) {
+    List<String> parts = new ArrayList<>();
+    int end = trimEnd(path);
+    int start = 1;
+    while (start <= end) {
+      int next = path.indexOf('/', start);
+      if (next < 0 || next > end)
+        next = end;
+      parts.add(path.substring(start, next));
+      start = next + 1;
+    }
+    return parts;
+  }
+
+  /**
+   * Gets the end of the path without the trailing slashes.
+   *
+   * @param path the path to process
+   * @return the end index of the path
+   */
+  private static int trimEnd(String path) {
+    int end = path.length();
+    while (end > 1 && path.charAt(end - 1) == '/')
+      end--;
+    return end;
+  }
+
+  /**
+   * Checks if the part of a route is a {@code &#123;**&#125;} part.
+   *
+   * @param part the part to check
+   * @return true if the part is a param, false otherwise
+   */
+  private static boolean isParam(String part) {
+    return part.length() >= 2 && part.charAt(0) == '{' && part.charAt(part.length() - 1) == '}';
+  }
+
+  /**
+   * Adds a route into the table.
+   *
+   * @param route the route to add
+   * @throws ApiException if a route with the same path and HTTP method has
+   *                      already existed
+   */
+  public synchronized void add(Route route) throws ApiException {
+    Node node = roots.computeIfAbsent(route.getHttpMethod(), method -> new Node());
+    List<String> names = new ArrayList<>();
+
+    for (String part : analyzePath(route.getRoute())) {
+      if (isParam(part)) {
+        if (node.param == null)
+          node.param = new Node();
+        node = node.param;
+        names.add(part.substring(1, part.length() - 1));
+      } else {
+        if (node.statics == null)
+          node.statics = new HashMap<>();
+        node = node.statics.computeIfAbsent(part, p -> new Node());
+      }
+    }
+
+    if (node.route != null)
+      throw new ApiException(
+          "Route `" + route.getRoute() + "` with `" + route.getHttpMethod() + "` method has already existed.");
+
+    node.route = route;
+    routes.add(route);
+    node.paramNames = names.toArray(new String[0]);
+    if (names.size() > maxParams)
+      maxParams = names.size();
+  }
+
+  /**
+   * Gets all routes of the table, in the order they were added.
+   *
+   * @return the list of routes
+   */
+  public List<Route> getRoutes() {
+    return Collections.unmodifiableList(routes);
+  }
+
+  /**
+   * Finds the route that matches the given path and HTTP method.
+   *
+   * @param path       the path of request
+   * @param httpMethod the method of request
+   * @return the matched route with its params, null if there is no route
+   */
+  public RouteMatch find(String path, HttpMethod httpMethod) {
+    Node root = roots.get(httpMethod);
+    if (root == null)
+      return null;
+
+    String[] values = new String[maxParams];
+    Node node = match(root, path, 1, trimEnd(path), values, 0);
+    if (node == null)
+      return null;
+
+    String[] params = new String[node.paramNames.length];
+    System.arraycopy(values, 0, params, 0, params.length);
+    return new RouteMatch(node.route, node.paramNames, params);
+  }
+
+  /**
+   * Finds all HTTP methods which have a route matching the given path.
+   *
+   * @param path the path of request
+   * @return the set of methods, empty if there is no route
+   */
+  public EnumSet<HttpMethod> findMethods(String path) {
+    EnumSet<HttpMethod> methods = EnumSet.noneOf(HttpMethod.class);
+    String[] values = new String[maxParams];
+    for (Map.Entry<HttpMethod, Node> root : roots.entrySet())
+      if (match(root.getValue(), path, 1, trimEnd(path), values, 0) != null)
+        methods.add(root.getKey());
+    return methods;
+  }
+
+  /**
+   * Walks down the tree from the given node, trying the static child before the
+   * {@code &#123;**&#125;} child of each part.
+   *
+   * @param node   the current node
+   * @param path   the path of request
+   * @param start  the start index of the current part
+   * @param end    the end index of the path
+   * @param values the array to store values of params
+   * @param count  the number of params stored
+   * @return the node contains the matched route, null if there is no route
+   */
+  private static Node match(Node node, String path, int start, int end, String[] values, int count) {
+    if (start > end)
+      return node.route == null ? null : node;
+
+    int next = path.indexOf('/', start);
+    if (next < 0 || next > end)
+      next = end;
+
+    String part = path.substring(start, next);
+    if (node.statics != null) {
+      Node child = node.statics.get(part);
+      if (child != null) {
+        Node result = match(child, path, next + 1, end, values, count);
+        if (result != null)
+          return result;
+      }
+    }
+
+    if (node.param != null && count < values.length) {
+      values[count] = part;
+      return match(node.param, path, next + 1, end, values, count + 1);
+    }
+    return null;
+  }
+}
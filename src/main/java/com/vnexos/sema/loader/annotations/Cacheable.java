@@ -0,0 +1,66 @@
+package com.vnexos.sema.loader.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Specifies that the response of a GET route is kept in the memory of the
+ * server, so the same request is answered without invoking the route method
+ * again.
+ *
+ * <p>
+ * The cache key is built from the params of the route, the query and the
+ * request headers named in {@link #key()}. Only responses with the {@code 200}
+ * status code are kept.
+ *
+ * <p>
+ * The key does not hold the user, so a request carrying credentials, which
+ * are an {@code Authorization} header, a cookie or an authenticated principal,
+ * is neither answered from nor kept in the cache. A route whose response is
+ * the same for every user can share it with {@link #shared()}. Adding
+ * {@code Authorization} to {@link #key()} as well keeps one response per
+ * user.
+ *
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * &#64;HttpGet("/settings")
+ * &#64;Cacheable(ttl = 600, key = "Accept-Language")
+ * public ApiResponse&lt;Settings&gt; getSettings() {
+ *   // ---- query settings
+ * }
+ * </pre>
+ *
+ * @author Trần Việt Đăng Quang
+ * @see com.vnexos.sema.context.ModuleServerContext#evictCache()
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@Documented
+public @interface Cacheable {
+  /**
+   * Gets how long a response is kept.
+   *
+   * @return the time to live in seconds
+   */
+  long ttl() default 60;
+
+  /**
+   * Gets the names of the request headers which are added to the cache key.
+   *
+   * @return the names of headers
+   */
+  String[] key() default {};
+
+  /**
+   * Gets if the responses are also cached for the requests with credentials,
+   * which then share the same response whoever sends them.
+   *
+   * @return true to cache the requests with credentials, false to skip them
+   */
+  boolean shared() default false;
+}
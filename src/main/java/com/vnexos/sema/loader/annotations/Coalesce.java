@@ -0,0 +1,66 @@
+package com.vnexos.sema.loader.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Specifies that identical GET requests arriving at the same time share a
+ * single invocation of the route method.
+ *
+ * <p>
+ * The first request invokes the route method, and the other requests with the
+ * same params, query and request headers named in {@link #key()} wait for its
+ * response and send a copy of its body. Only responses with the {@code 200}
+ * status code are shared. A request which waits longer than
+ * {@link #maxWait()} invokes the route method by itself.
+ *
+ * <p>
+ * As with {@link Cacheable}, a request carrying credentials, which are an
+ * {@code Authorization} header, a cookie or an authenticated principal, never
+ * shares an invocation unless {@link #shared()} is set.
+ *
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * &#64;HttpGet("/products/popular")
+ * &#64;Coalesce(key = "Accept-Language")
+ * public ApiResponse&lt;List&lt;Product&gt;&gt; getPopularProducts() {
+ *   // ---- run an expensive query
+ * }
+ * </pre>
+ *
+ * @author Trần Việt Đăng Quang
+ * @see com.vnexos.sema.http.RequestCoalescer
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@Documented
+public @interface Coalesce {
+  /**
+   * Gets the names of the request headers which tell the requests apart.
+   *
+   * @return the names of headers
+   */
+  String[] key() default {};
+
+  /**
+   * Gets how long a request waits for the shared response.
+   *
+   * @return the time in milliseconds, -1 to use the {@code coalesce.max-wait}
+   *         config
+   */
+  long maxWait() default -1;
+
+  /**
+   * Gets if the requests with credentials also share an invocation, which
+   * then gives the same response whoever sends them.
+   *
+   * @return true to coalesce the requests with credentials, false to skip
+   *         them
+   */
+  boolean shared() default false;
+}
@@ -0,0 +1,38 @@
+package com.vnexos.sema.loader.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Specifies that the response of a GET route is sent with an {@code ETag}
+ * header. When the {@code If-None-Match} header of the request matches it, the
+ * request is answered with the {@code 304} status code and no body.
+ *
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * &#64;HttpGet("/languages")
+ * &#64;ETag(maxAge = 300)
+ * public ApiResponse&lt;List&lt;Language&gt;&gt; getLanguages() {
+ *   // ---- query languages
+ * }
+ * </pre>
+ *
+ * @author Trần Việt Đăng Quang
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@Documented
+public @interface ETag {
+  /**
+   * Gets how long the response can be used without asking the server again. If
+   * it is 0, the response must be checked with the server every time.
+   *
+   * @return the max age of the {@code Cache-Control} header in seconds
+   */
+  long maxAge() default 0;
+}
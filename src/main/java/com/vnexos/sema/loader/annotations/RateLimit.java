@@ -0,0 +1,58 @@
+package com.vnexos.sema.loader.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Specifies how many requests a client can send to a route. A request over the
+ * limit is answered with the {@code 429} status code and the
+ * {@code Retry-After} header, before its body is read.
+ *
+ * <p>
+ * Each client has a bucket of {@link #burst()} tokens, which is refilled at
+ * {@link #rate()} tokens per second. Clients are told apart by their IP
+ * address, or by the request header named in {@link #key()}.
+ *
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * &#64;HttpPost("/reports")
+ * &#64;RateLimit(rate = 0.5, burst = 5, key = "Authorization")
+ * public ApiResponse&lt;Report&gt; createReport(&#64;FromBody ReportRequest request) {
+ *   // ---- build an expensive report
+ * }
+ * </pre>
+ *
+ * @author Trần Việt Đăng Quang
+ * @see com.vnexos.sema.http.RateLimiter
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@Documented
+public @interface RateLimit {
+  /**
+   * Gets the number of requests a client can send each second, on average.
+   *
+   * @return the rate in requests per second, 0 for no limit
+   */
+  double rate();
+
+  /**
+   * Gets the number of requests a client can send at once.
+   *
+   * @return the size of the bucket, -1 to use the {@code ratelimit.burst}
+   *         config
+   */
+  int burst() default -1;
+
+  /**
+   * Gets the name of the request header which tells clients apart.
+   *
+   * @return the name of header, empty to use the {@code ratelimit.key} config
+   */
+  String key() default "";
+}
@@ -0,0 +1,38 @@
+package com.vnexos.sema.loader.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Specifies how long a route returning a {@code CompletionStage} can take
+ * before the request is answered with the {@code 503} status code. Routes
+ * without this annotation use the {@code request.async-timeout} value in the
+ * config file.
+ *
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * &#64;HttpGet("/{id}/summary")
+ * &#64;Timeout(5000)
+ * public CompletableFuture&lt;ApiResponse&lt;Summary&gt;&gt; getSummary(&#64;FromRoute UUID id) {
+ *   // ---- fan out to repositories
+ * }
+ * </pre>
+ *
+ * @author Trần Việt Đăng Quang
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@Documented
+public @interface Timeout {
+  /**
+   * Gets the timeout of the route.
+   *
+   * @return the timeout in milliseconds, 0 for no timeout
+   */
+  long value();
+}
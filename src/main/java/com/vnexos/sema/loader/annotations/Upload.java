@@ -0,0 +1,52 @@
+package com.vnexos.sema.loader.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Specifies the limits of the {@code multipart} body of a route. The values
+ * which are not given use the {@code multipart.*} values in the config file.
+ *
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * &#64;HttpPost("/videos")
+ * &#64;Upload(maxFileSize = 1073741824L, checksum = "SHA-256")
+ * public ApiResponse&lt;Video&gt; upload(&#64;FromBody Part video) {
+ *   // ---- save video
+ * }
+ * </pre>
+ *
+ * @author Trần Việt Đăng Quang
+ * @see com.vnexos.sema.loader.Part
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@Documented
+public @interface Upload {
+  /**
+   * Gets the maximum size of a file part.
+   *
+   * @return the size in bytes, 0 for no limit, -1 to use the config
+   */
+  long maxFileSize() default -1;
+
+  /**
+   * Gets the maximum size of the whole body.
+   *
+   * @return the size in bytes, 0 for no limit, -1 to use the config
+   */
+  long maxRequestSize() default -1;
+
+  /**
+   * Gets the algorithm of the checksum computed for each file part, such as
+   * {@code SHA-256} or {@code CRC32C}.
+   *
+   * @return the name of algorithm, empty to use the config
+   */
+  String checksum() default "";
+}
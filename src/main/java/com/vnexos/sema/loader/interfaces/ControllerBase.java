@@ -3,25 +3,32 @@ package com.vnexos.sema.loader.interfaces;
 import java.util.Map;
 
 import com.vnexos.sema.ApiResponse;
+import com.vnexos.sema.loader.RequestContext;
 
 /**
  * Represents a controller. All controllers must inherit from this class.
  * 
  * <p>
- * This class contains all needed methods for controller.
+ * This class contains all needed methods for controller. A controller is
+ * shared by all requests, so the request is read from the
+ * {@link RequestContext} of the current thread instead of a field.
  * 
  * @author Trần Việt Đăng Quang
  * @see ApiResponse
  */
 public class ControllerBase {
-  private Map<String, String> headers;
+  protected RequestContext getContext() {
+    return RequestContext.current();
+  }
 
   protected String getHeader(String name) {
-    return headers.get(name);
+    RequestContext context = RequestContext.current();
+    return context == null ? null : context.getHeader(name);
   }
 
   protected Map<String, String> getHeaders() {
-    return headers;
+    RequestContext context = RequestContext.current();
+    return context == null ? Map.of() : context.getHeaders();
   }
 
   protected <T> ApiResponse<T> createOk(T obj) {
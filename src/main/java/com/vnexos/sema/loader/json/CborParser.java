@@ -0,0 +1,355 @@
+package com.vnexos.sema.loader.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Parses CBOR (RFC 8949) into the same {@code JsonElement} tree as JSON, so
+ * the body can be read into any type by the adapters of Gson.
+ *
+ * <p>
+ * Numbers are kept as {@code Long} and {@code Double} values, so they are
+ * never converted from text. Byte strings are given as Base64 text, tags are
+ * skipped, and the keys of maps which are not text are converted into text.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see CborWriter
+ */
+public class CborParser {
+  private static final int MAX_DEPTH = 512;
+  private static final int BREAK = 0xff;
+  private static final BigInteger UNSIGNED_OFFSET = BigInteger.ONE.shiftLeft(64);
+
+  private final InputStream in;
+  private final byte[] buffer = new byte[8192];
+  private int position = 0;
+  private int limit = 0;
+
+  /**
+   * Constructs a parser of the stream.
+   *
+   * @param in the stream to parse
+   */
+  private CborParser(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * Parses a single CBOR item from the stream.
+   *
+   * @param in the stream to parse
+   * @return the parsed tree, null if the stream is empty
+   * @throws IOException if the stream is not valid CBOR or cannot be read
+   */
+  public static JsonElement parse(InputStream in) throws IOException {
+    CborParser parser = new CborParser(in);
+    if (!parser.fill())
+      return null;
+    return parser.readItem(0);
+  }
+
+  /**
+   * Reads an item and the items inside it.
+   *
+   * @param depth the number of containers around the item
+   * @return the item as a tree
+   * @throws IOException if the item is not valid
+   */
+  private JsonElement readItem(int depth) throws IOException {
+    int initial = readByte();
+    int majorType = initial >>> 5;
+    int info = initial & 0x1f;
+    switch (majorType) {
+      case 0:
+        return toInteger(readArgument(info), false);
+      case 1:
+        return toInteger(readArgument(info), true);
+      case 2:
+        return new JsonPrimitive(Base64.getEncoder().encodeToString(readString(majorType, info)));
+      case 3:
+        return new JsonPrimitive(new String(readString(majorType, info), StandardCharsets.UTF_8));
+      case 4:
+        return readArray(info, depth + 1);
+      case 5:
+        return readMap(info, depth + 1);
+      case 6:
+        // A tag counts as a container, so a long chain of tags is limited too
+        readArgument(info);
+        checkDepth(depth + 1);
+        return readItem(depth + 1);
+      default:
+        return readSimple(info);
+    }
+  }
+
+  /**
+   * Reads the items of an array.
+   *
+   * @param info  the additional information of the head
+   * @param depth the number of containers around the items
+   * @return the array
+   * @throws IOException if an item is not valid
+   */
+  private JsonArray readArray(int info, int depth) throws IOException {
+    checkDepth(depth);
+    JsonArray array = new JsonArray();
+    if (info == 31) {
+      while (peekByte() != BREAK)
+        array.add(readItem(depth));
+      readByte();
+    } else {
+      for (long length = readArgument(info); length > 0; length--)
+        array.add(readItem(depth));
+    }
+    return array;
+  }
+
+  /**
+   * Reads the entries of a map.
+   *
+   * @param info  the additional information of the head
+   * @param depth the number of containers around the entries
+   * @return the map as a JSON object
+   * @throws IOException if an entry is not valid
+   */
+  private JsonObject readMap(int info, int depth) throws IOException {
+    checkDepth(depth);
+    JsonObject object = new JsonObject();
+    if (info == 31) {
+      while (peekByte() != BREAK)
+        object.add(readKey(depth), readItem(depth));
+      readByte();
+    } else {
+      for (long length = readArgument(info); length > 0; length--)
+        object.add(readKey(depth), readItem(depth));
+    }
+    return object;
+  }
+
+  /**
+   * Reads the key of a map entry as text.
+   *
+   * @param depth the number of containers around the key
+   * @return the key
+   * @throws IOException if the key is not valid
+   */
+  private String readKey(int depth) throws IOException {
+    JsonElement key = readItem(depth);
+    if (key.isJsonPrimitive())
+      return key.getAsString();
+    if (key.isJsonNull())
+      return "null";
+    return key.toString();
+  }
+
+  /**
+   * Reads a simple value or a floating-point number.
+   *
+   * @param info the additional information of the head
+   * @return the value
+   * @throws IOException if the value is not supported
+   */
+  private JsonElement readSimple(int info) throws IOException {
+    switch (info) {
+      case 20:
+        return new JsonPrimitive(false);
+      case 21:
+        return new JsonPrimitive(true);
+      case 22:
+      case 23:
+        return JsonNull.INSTANCE;
+      case 25:
+        return new JsonPrimitive((double) toHalfFloat((int) readBits(2)));
+      case 26:
+        return new JsonPrimitive((double) Float.intBitsToFloat((int) readBits(4)));
+      case 27:
+        return new JsonPrimitive(Double.longBitsToDouble(readBits(8)));
+      default:
+        throw new IOException("Unsupported CBOR simple value " + info);
+    }
+  }
+
+  /**
+   * Converts the argument of an integer item into a number.
+   *
+   * @param argument   the argument, which is unsigned
+   * @param isNegative true for the major type 1
+   * @return the number
+   */
+  private static JsonPrimitive toInteger(long argument, boolean isNegative) {
+    if (argument >= 0)
+      return new JsonPrimitive(isNegative ? -1 - argument : argument);
+    // The argument is larger than Long.MAX_VALUE
+    BigInteger value = BigInteger.valueOf(argument).add(UNSIGNED_OFFSET);
+    return new JsonPrimitive(isNegative ? value.negate().subtract(BigInteger.ONE) : value);
+  }
+
+  /**
+   * Converts the bits of a 16-bit float into a {@code float}.
+   *
+   * @param bits the bits of the half float
+   * @return the value
+   */
+  private static float toHalfFloat(int bits) {
+    int exponent = (bits >>> 10) & 0x1f;
+    int mantissa = bits & 0x3ff;
+    float value;
+    if (exponent == 0)
+      value = mantissa * 0x1p-24f;
+    else if (exponent == 31)
+      value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+    else
+      value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+    return (bits & 0x8000) != 0 ? -value : value;
+  }
+
+  /**
+   * Reads the content of a byte or text string, which may be given in chunks.
+   *
+   * @param majorType the major type of the string
+   * @param info      the additional information of the head
+   * @return the bytes of the string
+   * @throws IOException if the string is not valid
+   */
+  private byte[] readString(int majorType, int info) throws IOException {
+    if (info != 31)
+      return readBytes(readArgument(info));
+    ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+    int initial;
+    while ((initial = readByte()) != BREAK) {
+      if (initial >>> 5 != majorType || (initial & 0x1f) == 31)
+        throw new IOException("Invalid chunk of an indefinite-length CBOR string");
+      chunks.write(readBytes(readArgument(initial & 0x1f)));
+    }
+    return chunks.toByteArray();
+  }
+
+  /**
+   * Reads the argument of a head.
+   *
+   * @param info the additional information of the head
+   * @return the argument, which is unsigned
+   * @throws IOException if the argument is not valid
+   */
+  private long readArgument(int info) throws IOException {
+    if (info < 24)
+      return info;
+    switch (info) {
+      case 24:
+        return readBits(1);
+      case 25:
+        return readBits(2);
+      case 26:
+        return readBits(4);
+      case 27:
+        return readBits(8);
+      default:
+        throw new IOException("Invalid CBOR argument " + info);
+    }
+  }
+
+  /**
+   * Reads a big-endian value.
+   *
+   * @param length the number of bytes
+   * @return the value
+   * @throws IOException if the stream has ended
+   */
+  private long readBits(int length) throws IOException {
+    long bits = 0;
+    for (int i = 0; i < length; i++)
+      bits = (bits << 8) | readByte();
+    return bits;
+  }
+
+  /**
+   * Reads the given number of bytes. A large length is read in parts, so a
+   * wrong length cannot take more memory than the stream has.
+   *
+   * @param length the number of bytes
+   * @return the bytes
+   * @throws IOException if the stream has ended
+   */
+  private byte[] readBytes(long length) throws IOException {
+    if (length < 0 || length > Integer.MAX_VALUE - 8)
+      throw new IOException("CBOR string is too long");
+    int size = (int) length;
+    if (size <= limit - position) {
+      byte[] bytes = new byte[size];
+      System.arraycopy(buffer, position, bytes, 0, size);
+      position += size;
+      return bytes;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(size, buffer.length));
+    while (size > 0) {
+      if (position == limit && !fill())
+        throw new EOFException("End of CBOR input");
+      int count = Math.min(size, limit - position);
+      bytes.write(buffer, position, count);
+      position += count;
+      size -= count;
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Reads a single byte.
+   *
+   * @return the byte as an unsigned value
+   * @throws IOException if the stream has ended
+   */
+  private int readByte() throws IOException {
+    if (position == limit && !fill())
+      throw new EOFException("End of CBOR input");
+    return buffer[position++] & 0xff;
+  }
+
+  /**
+   * Gets the next byte without reading it.
+   *
+   * @return the byte as an unsigned value
+   * @throws IOException if the stream has ended
+   */
+  private int peekByte() throws IOException {
+    if (position == limit && !fill())
+      throw new EOFException("End of CBOR input");
+    return buffer[position] & 0xff;
+  }
+
+  /**
+   * Reads the next part of the stream into the buffer.
+   *
+   * @return false if the stream has ended, true otherwise
+   * @throws IOException if the stream cannot be read
+   */
+  private boolean fill() throws IOException {
+    int count = in.read(buffer, 0, buffer.length);
+    if (count <= 0)
+      return false;
+    position = 0;
+    limit = count;
+    return true;
+  }
+
+  /**
+   * Checks that the containers are not nested too deeply.
+   *
+   * @param depth the number of containers
+   * @throws IOException if there are too many containers
+   */
+  private static void checkDepth(int depth) throws IOException {
+    if (depth > MAX_DEPTH)
+      throw new IOException("CBOR input is nested too deeply");
+  }
+}
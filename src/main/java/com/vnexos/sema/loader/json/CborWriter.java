@@ -0,0 +1,376 @@
+package com.vnexos.sema.loader.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonParser;
+import com.google.gson.internal.Streams;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A specialized {@code JsonWriter} that writes CBOR (RFC 8949) instead of JSON
+ * text.
+ *
+ * <p>
+ * Gson writes into it with the same adapters as for JSON, so the fields
+ * annotated by {@code &#64;Hidden} are skipped, the id is written first and the
+ * dates are written as text. Objects and arrays are written with an
+ * indefinite length, so nothing has to be counted or kept before it is sent.
+ * Integers are written in the fewest bytes, and a {@code double} is written in
+ * 4 bytes when it has no more precision than a {@code float}.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see CborParser
+ */
+public class CborWriter extends JsonWriter {
+  private static final int BEGIN_ARRAY = 0x9f;
+  private static final int BEGIN_MAP = 0xbf;
+  private static final int BREAK = 0xff;
+  private static final int FALSE = 0xf4;
+  private static final int TRUE = 0xf5;
+  private static final int NULL = 0xf6;
+  private static final int FLOAT32 = 0xfa;
+  private static final int FLOAT64 = 0xfb;
+
+  private final OutputStream out;
+  private final byte[] buffer = new byte[8192];
+  private int count = 0;
+  private String deferredName;
+
+  /**
+   * Constructs a writer into the stream. The written bytes are kept in a
+   * buffer until it is full or the writer is flushed.
+   *
+   * @param out the stream to write into
+   */
+  public CborWriter(OutputStream out) {
+    super(Writer.nullWriter());
+    this.out = out;
+  }
+
+  @Override
+  public JsonWriter beginArray() throws IOException {
+    writeDeferredName();
+    writeByte(BEGIN_ARRAY);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endArray() throws IOException {
+    writeByte(BREAK);
+    return this;
+  }
+
+  @Override
+  public JsonWriter beginObject() throws IOException {
+    writeDeferredName();
+    writeByte(BEGIN_MAP);
+    return this;
+  }
+
+  @Override
+  public JsonWriter endObject() throws IOException {
+    deferredName = null;
+    writeByte(BREAK);
+    return this;
+  }
+
+  @Override
+  public JsonWriter name(String name) throws IOException {
+    Objects.requireNonNull(name, "name == null");
+    if (deferredName != null)
+      throw new IllegalStateException("Already wrote a name, expecting a value.");
+    deferredName = name;
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(String value) throws IOException {
+    if (value == null)
+      return nullValue();
+    writeDeferredName();
+    writeText(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(boolean value) throws IOException {
+    writeDeferredName();
+    writeByte(value ? TRUE : FALSE);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Boolean value) throws IOException {
+    if (value == null)
+      return nullValue();
+    return value(value.booleanValue());
+  }
+
+  @Override
+  public JsonWriter value(float value) throws IOException {
+    writeDeferredName();
+    writeFloat(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(double value) throws IOException {
+    writeDeferredName();
+    writeDouble(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(long value) throws IOException {
+    writeDeferredName();
+    writeInteger(value);
+    return this;
+  }
+
+  @Override
+  public JsonWriter value(Number value) throws IOException {
+    if (value == null)
+      return nullValue();
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+        || value instanceof AtomicInteger || value instanceof AtomicLong)
+      return value(value.longValue());
+    if (value instanceof Double)
+      return value(value.doubleValue());
+    if (value instanceof Float)
+      return value(value.floatValue());
+    if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64)
+      return value(value.longValue());
+
+    // Keep the precision of the other numbers, such as the ones read lazily
+    String text = value.toString();
+    BigDecimal decimal;
+    try {
+      decimal = new BigDecimal(text);
+    } catch (NumberFormatException e) {
+      return value(text);
+    }
+    if (decimal.scale() <= 0 && decimal.abs().compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) <= 0)
+      return value(decimal.longValueExact());
+    double number = decimal.doubleValue();
+    if (Double.isFinite(number) && new BigDecimal(Double.toString(number)).compareTo(decimal) == 0)
+      return value(number);
+    return value(text);
+  }
+
+  @Override
+  public JsonWriter nullValue() throws IOException {
+    if (deferredName != null && !getSerializeNulls()) {
+      deferredName = null;
+      return this;
+    }
+    writeDeferredName();
+    writeByte(NULL);
+    return this;
+  }
+
+  /**
+   * Writes a value given as JSON text, by converting it into CBOR.
+   *
+   * @param value the JSON text
+   * @return this writer
+   * @throws IOException if the value cannot be written
+   */
+  @Override
+  public JsonWriter jsonValue(String value) throws IOException {
+    if (value == null)
+      return nullValue();
+    Streams.write(JsonParser.parseString(value), this);
+    return this;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    flushBuffer();
+    out.close();
+  }
+
+  /**
+   * Writes the name of the current field, if it has not been written.
+   *
+   * @throws IOException if the name cannot be written
+   */
+  private void writeDeferredName() throws IOException {
+    if (deferredName != null) {
+      writeText(deferredName);
+      deferredName = null;
+    }
+  }
+
+  /**
+   * Writes an integer in the fewest bytes.
+   *
+   * @param value the integer to write
+   * @throws IOException if the integer cannot be written
+   */
+  private void writeInteger(long value) throws IOException {
+    if (value >= 0)
+      writeHead(0, value);
+    else
+      writeHead(1, -1 - value);
+  }
+
+  /**
+   * Writes a {@code float} in 4 bytes.
+   *
+   * @param value the number to write
+   * @throws IOException if the number cannot be written
+   */
+  private void writeFloat(float value) throws IOException {
+    ensureCapacity(5);
+    buffer[count++] = (byte) FLOAT32;
+    writeBits(Float.floatToIntBits(value), 4);
+  }
+
+  /**
+   * Writes a {@code double} in 4 bytes if no precision is lost, otherwise in 8
+   * bytes.
+   *
+   * @param value the number to write
+   * @throws IOException if the number cannot be written
+   */
+  private void writeDouble(double value) throws IOException {
+    if ((float) value == value || Double.isNaN(value)) {
+      writeFloat((float) value);
+      return;
+    }
+    ensureCapacity(9);
+    buffer[count++] = (byte) FLOAT64;
+    writeBits(Double.doubleToLongBits(value), 8);
+  }
+
+  /**
+   * Writes a text string in UTF-8.
+   *
+   * @param value the string to write
+   * @throws IOException if the string cannot be written
+   */
+  private void writeText(String value) throws IOException {
+    int length = value.length();
+    boolean isAscii = length <= buffer.length - 9;
+    for (int i = 0; isAscii && i < length; i++)
+      isAscii = value.charAt(i) < 0x80;
+
+    if (isAscii) {
+      // Most names and values are ASCII, which can be copied without encoding
+      writeHead(3, length);
+      ensureCapacity(length);
+      for (int i = 0; i < length; i++)
+        buffer[count++] = (byte) value.charAt(i);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeHead(3, bytes.length);
+    writeBytes(bytes);
+  }
+
+  /**
+   * Writes the head of an item, which is its major type and its argument.
+   *
+   * @param majorType the major type of the item
+   * @param argument  the argument, such as the integer or the length
+   * @throws IOException if the head cannot be written
+   */
+  private void writeHead(int majorType, long argument) throws IOException {
+    ensureCapacity(9);
+    int type = majorType << 5;
+    if (argument < 24) {
+      buffer[count++] = (byte) (type | argument);
+    } else if (argument < 0x100) {
+      buffer[count++] = (byte) (type | 24);
+      buffer[count++] = (byte) argument;
+    } else if (argument < 0x10000) {
+      buffer[count++] = (byte) (type | 25);
+      writeBits(argument, 2);
+    } else if (argument < 0x100000000L) {
+      buffer[count++] = (byte) (type | 26);
+      writeBits(argument, 4);
+    } else {
+      buffer[count++] = (byte) (type | 27);
+      writeBits(argument, 8);
+    }
+  }
+
+  /**
+   * Writes the lowest bytes of a value in big-endian order. The buffer must
+   * have room for them.
+   *
+   * @param bits   the value to write
+   * @param length the number of bytes
+   */
+  private void writeBits(long bits, int length) {
+    for (int shift = (length - 1) * 8; shift >= 0; shift -= 8)
+      buffer[count++] = (byte) (bits >>> shift);
+  }
+
+  /**
+   * Writes a single byte.
+   *
+   * @param b the byte to write
+   * @throws IOException if the byte cannot be written
+   */
+  private void writeByte(int b) throws IOException {
+    ensureCapacity(1);
+    buffer[count++] = (byte) b;
+  }
+
+  /**
+   * Writes an array of bytes, straight to the stream if it does not fit in the
+   * buffer.
+   *
+   * @param bytes the bytes to write
+   * @throws IOException if the bytes cannot be written
+   */
+  private void writeBytes(byte[] bytes) throws IOException {
+    if (bytes.length > buffer.length - count) {
+      flushBuffer();
+      if (bytes.length > buffer.length) {
+        out.write(bytes);
+        return;
+      }
+    }
+    System.arraycopy(bytes, 0, buffer, count, bytes.length);
+    count += bytes.length;
+  }
+
+  /**
+   * Makes room in the buffer for the given number of bytes.
+   *
+   * @param length the number of bytes, not larger than the buffer
+   * @throws IOException if the buffer cannot be flushed
+   */
+  private void ensureCapacity(int length) throws IOException {
+    if (count + length > buffer.length)
+      flushBuffer();
+  }
+
+  /**
+   * Writes the bytes kept in the buffer to the stream.
+   *
+   * @throws IOException if the bytes cannot be written
+   */
+  private void flushBuffer() throws IOException {
+    if (count > 0) {
+      out.write(buffer, 0, count);
+      count = 0;
+    }
+  }
+}
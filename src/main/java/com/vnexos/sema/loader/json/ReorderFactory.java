@@ -1,15 +1,24 @@
 package com.vnexos.sema.loader.json;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
-import java.util.Map;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.JsonIOException;
 import com.google.gson.TypeAdapter;
 import com.google.gson.TypeAdapterFactory;
-import com.google.gson.internal.Streams;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.internal.$Gson$Types;
+import com.google.gson.internal.Excluder;
+import com.google.gson.internal.bind.ReflectiveTypeAdapterFactory;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
@@ -20,63 +29,229 @@ import com.vnexos.sema.util.ClassUtils;
  * A specialized {@code TypeAdapterFactory} to helps Gson factory take the field
  * annotated by {@code &#64;Identity} or have the name with {@code id} to the
  * first of the Json object.
- * 
+ *
+ * <p>
+ * The classes which Gson writes by reflection are written by an adapter made
+ * once per class, which streams the fields straight to the writer with the id
+ * first. The fields are chosen as Gson does, so the exclusion strategies such
+ * as the one of {@code &#64;Hidden}, {@code &#64;SerializedName} and the
+ * adapters of the field types are all kept. The fields and their getters are
+ * looked up once per class and shared by every {@code Gson} using this
+ * factory. Reading is left to the adapter of Gson.
+ *
  * @author Trần Việt Đăng Quang
  * @see Identity
  */
 public class ReorderFactory implements TypeAdapterFactory {
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+  private static final ClassValue<EntityField[]> FIELDS = new ClassValue<>() {
+    @Override
+    protected EntityField[] computeValue(Class<?> type) {
+      return findFields(type);
+    }
+  };
 
   @Override
   public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
     TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+    if (!(delegate instanceof ReflectiveTypeAdapterFactory.Adapter))
+      return delegate;
 
-    if (!Object.class.isAssignableFrom(type.getRawType())) {
+    EntityField[] fields = FIELDS.get(type.getRawType());
+    if (fields == null)
       return delegate;
+    return new EntityAdapter<>(delegate, bindFields(gson, type, fields));
+  }
+
+  /**
+   * Finds the instance fields of a class and its superclasses in the order Gson
+   * writes them, with the getters to read them. The field annotated by
+   * {@code &#64;Identity}, or else the field named {@code id}, is put first.
+   *
+   * @param type the class to find
+   * @return the fields, null if the class cannot be written by this factory
+   */
+  private static EntityField[] findFields(Class<?> type) {
+    Field identity = ClassUtils.findAnnotatedField(type, Identity.class);
+    List<EntityField> fields = new ArrayList<>();
+    boolean hasId = false;
+    for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+      for (Field field : current.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers()))
+          continue;
+        if (field.isAnnotationPresent(JsonAdapter.class))
+          return null;
+        MethodHandle getter;
+        try {
+          field.setAccessible(true);
+          getter = MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+        } catch (IllegalAccessException | RuntimeException e) {
+          // Let Gson report the fields which cannot be accessed
+          return null;
+        }
+        EntityField entityField = new EntityField(field, getter);
+        if (!hasId && (identity == null ? field.getName().equals("id") : field.equals(identity))) {
+          fields.add(0, entityField);
+          hasId = true;
+        } else {
+          fields.add(entityField);
+        }
+      }
     }
+    return fields.toArray(new EntityField[0]);
+  }
 
-    return new TypeAdapter<T>() {
+  /**
+   * Selects the fields written by the given {@code Gson}, with their names and
+   * adapters.
+   *
+   * @param gson   the {@code Gson} which writes the object
+   * @param type   the type of the object
+   * @param fields the fields of the class
+   * @return the fields to write
+   */
+  private static BoundField[] bindFields(Gson gson, TypeToken<?> type, EntityField[] fields) {
+    @SuppressWarnings("deprecation")
+    Excluder excluder = gson.excluder();
+    List<BoundField> bound = new ArrayList<>(fields.length);
+    for (EntityField entityField : fields) {
+      Field field = entityField.field;
+      if (excluder.excludeClass(field.getType(), true) || excluder.excludeField(field, true))
+        continue;
 
-      @Override
-      public T read(JsonReader reader) throws IOException {
-        return delegate.read(reader);
-      }
+      Type fieldType = $Gson$Types.resolve(type.getType(), type.getRawType(), field.getGenericType());
+      SerializedName serializedName = field.getAnnotation(SerializedName.class);
+      String name = serializedName == null ? gson.fieldNamingStrategy().translateName(field)
+          : serializedName.value();
+      bound.add(new BoundField(gson, name, entityField.getter, fieldType, field.getType().isPrimitive()));
+    }
+    return bound.toArray(new BoundField[0]);
+  }
 
-      @Override
-      public void write(JsonWriter writer, T value) throws IOException {
-        if (value == null) {
-          writer.nullValue();
-          return;
-        }
+  /**
+   * Checks if an adapter writes the objects by their fields.
+   *
+   * @param adapter the adapter to check
+   * @return true if it is a reflective adapter, false otherwise
+   */
+  private static boolean isReflective(TypeAdapter<?> adapter) {
+    return adapter instanceof EntityAdapter || adapter instanceof ReflectiveTypeAdapterFactory.Adapter;
+  }
 
-        Field field = ClassUtils.findAnnotatedField(value.getClass(), Identity.class);
-        String idField = field == null ? "id" : field.getName();
+  /**
+   * Represents an instance field of a class with its getter.
+   */
+  private static class EntityField {
+    final Field field;
+    final MethodHandle getter;
 
-        // Safely serialize to a JsonObject
-        JsonElement tree = delegate.toJsonTree(value);
-        if (!tree.isJsonObject()) {
-          // Not a typical POJO — fallback
-          Streams.write(tree, writer);
-          return;
-        }
+    EntityField(Field field, MethodHandle getter) {
+      this.field = field;
+      this.getter = getter;
+    }
+  }
 
-        JsonObject original = tree.getAsJsonObject();
-        JsonObject reordered = new JsonObject();
+  /**
+   * Represents a field written by a {@code Gson}, with its name in JSON and the
+   * adapter of its type.
+   */
+  private static class BoundField {
+    final Gson gson;
+    final String name;
+    final MethodHandle getter;
+    final Type type;
+    final boolean isPrimitive;
+    final TypeAdapter<Object> adapter;
+    volatile RuntimeAdapter runtime;
 
-        // Move "id" field to the top if it exists
-        if (original.has(idField)) {
-          reordered.add(idField, original.get(idField));
-        }
+    @SuppressWarnings("unchecked")
+    BoundField(Gson gson, String name, MethodHandle getter, Type type, boolean isPrimitive) {
+      this.gson = gson;
+      this.name = name;
+      this.getter = getter;
+      this.type = type;
+      this.isPrimitive = isPrimitive;
+      this.adapter = (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(type));
+    }
 
-        // Add all other fields
-        for (Map.Entry<String, JsonElement> entry : original.entrySet()) {
-          if (!entry.getKey().equals("id")) {
-            reordered.add(entry.getKey(), entry.getValue());
-          }
-        }
+    /**
+     * Gets the adapter for the value. As Gson does, the adapter of its runtime
+     * class is used, unless that one writes by reflection while the declared
+     * type has its own adapter.
+     *
+     * @param value the value of the field
+     * @return the adapter to write the value
+     */
+    @SuppressWarnings("unchecked")
+    TypeAdapter<Object> getAdapter(Object value) {
+      if (value == null || isPrimitive || value.getClass() == type)
+        return adapter;
+      Class<?> runtimeClass = value.getClass();
+      RuntimeAdapter last = runtime;
+      if (last != null && last.type == runtimeClass)
+        return last.adapter;
 
-        Streams.write(reordered, writer);
-      }
-    };
+      TypeAdapter<Object> runtimeAdapter = (TypeAdapter<Object>) gson.getAdapter(runtimeClass);
+      // The declared adapter may still be unresolved if the type refers to itself
+      TypeAdapter<?> declared = gson.getAdapter(TypeToken.get(type));
+      TypeAdapter<Object> chosen = !isReflective(runtimeAdapter) || isReflective(declared) ? runtimeAdapter : adapter;
+      runtime = new RuntimeAdapter(runtimeClass, chosen);
+      return chosen;
+    }
   }
 
+  /**
+   * Keeps the adapter chosen for the last runtime class of a field.
+   */
+  private static class RuntimeAdapter {
+    final Class<?> type;
+    final TypeAdapter<Object> adapter;
+
+    RuntimeAdapter(Class<?> type, TypeAdapter<Object> adapter) {
+      this.type = type;
+      this.adapter = adapter;
+    }
+  }
+
+  /**
+   * Writes an object field by field, with the id first.
+   */
+  private static class EntityAdapter<T> extends TypeAdapter<T> {
+    private final TypeAdapter<T> delegate;
+    private final BoundField[] fields;
+
+    EntityAdapter(TypeAdapter<T> delegate, BoundField[] fields) {
+      this.delegate = delegate;
+      this.fields = fields;
+    }
+
+    @Override
+    public T read(JsonReader reader) throws IOException {
+      return delegate.read(reader);
+    }
+
+    @Override
+    public void write(JsonWriter writer, T value) throws IOException {
+      if (value == null) {
+        writer.nullValue();
+        return;
+      }
+
+      writer.beginObject();
+      for (BoundField field : fields) {
+        Object fieldValue;
+        try {
+          fieldValue = field.getter.invokeExact((Object) value);
+        } catch (Throwable e) {
+          throw new JsonIOException("Cannot read the field " + field.name, e);
+        }
+        // Skip a field referring to its own object, as Gson does
+        if (fieldValue == value)
+          continue;
+        writer.name(field.name);
+        field.getAdapter(fieldValue).write(writer, fieldValue);
+      }
+      writer.endObject();
+    }
+  }
 }
@@ -0,0 +1,200 @@
+package com.vnexos.sema.standalone;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vnexos.sema.Constants;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+
+/**
+ * Represents a request suspended on the {@link StandaloneServer}.
+ *
+ * <p>
+ * The virtual thread of the exchange waits in {@link #await()} until the
+ * request is completed, then the response is sent. A client which has gone
+ * away completes the request with an error, so the thread is never kept by a
+ * dead connection.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see ExchangeRequest#startAsync()
+ */
+public class ExchangeAsyncContext implements AsyncContext {
+  private final ServletRequest request;
+  private final ServletResponse response;
+  private final ExchangeResponse exchangeResponse;
+  private final Executor executor;
+  private final List<AsyncListener> listeners = new CopyOnWriteArrayList<>();
+  private final CountDownLatch completed = new CountDownLatch(1);
+  private final AtomicBoolean isCompleted = new AtomicBoolean();
+  private volatile long timeout = 30000;
+
+  /**
+   * Constructs the context of a suspended request.
+   *
+   * @param request          the request given to the listeners
+   * @param response         the response given to the listeners
+   * @param exchangeResponse the response of the exchange
+   * @param executor         the executor running the tasks given to
+   *                         {@link #start(Runnable)}
+   */
+  ExchangeAsyncContext(ServletRequest request, ServletResponse response, ExchangeResponse exchangeResponse,
+      Executor executor) {
+    this.request = request;
+    this.response = response;
+    this.exchangeResponse = exchangeResponse;
+    this.executor = executor;
+    exchangeResponse.setAsyncContext(this);
+  }
+
+  @Override
+  public ServletRequest getRequest() {
+    return request;
+  }
+
+  @Override
+  public ServletResponse getResponse() {
+    return response;
+  }
+
+  @Override
+  public boolean hasOriginalRequestAndResponse() {
+    return request instanceof ExchangeRequest && response instanceof ExchangeResponse;
+  }
+
+  @Override
+  public void dispatch() {
+    throw new IllegalStateException("Dispatching is not supported by the standalone server");
+  }
+
+  @Override
+  public void dispatch(String path) {
+    dispatch();
+  }
+
+  @Override
+  public void dispatch(ServletContext context, String path) {
+    dispatch();
+  }
+
+  @Override
+  public void complete() {
+    if (!isCompleted.compareAndSet(false, true))
+      return;
+    AsyncEvent event = new AsyncEvent(this, request, response);
+    for (AsyncListener listener : listeners) {
+      try {
+        listener.onComplete(event);
+      } catch (IOException | RuntimeException e) {
+        Constants.context.log(e);
+      }
+    }
+    completed.countDown();
+  }
+
+  @Override
+  public void start(Runnable run) {
+    executor.execute(run);
+  }
+
+  @Override
+  public void addListener(AsyncListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void addListener(AsyncListener listener, ServletRequest servletRequest,
+      ServletResponse servletResponse) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public <T extends AsyncListener> T createListener(Class<T> clazz) throws ServletException {
+    try {
+      return clazz.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new ServletException("Cannot create the listener", e);
+    }
+  }
+
+  @Override
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  @Override
+  public long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * Checks if the request has been completed.
+   *
+   * @return true if it has been completed, false otherwise
+   */
+  boolean isCompleted() {
+    return isCompleted.get();
+  }
+
+  /**
+   * Waits until the request is completed. If the timeout passes first, the
+   * listeners are told, and the request is answered with {@code 500} if none
+   * of them completes it.
+   *
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  void await() throws InterruptedException {
+    long wait = timeout;
+    if (wait <= 0) {
+      completed.await();
+      return;
+    }
+    if (completed.await(wait, TimeUnit.MILLISECONDS))
+      return;
+
+    AsyncEvent event = new AsyncEvent(this, request, response);
+    for (AsyncListener listener : listeners) {
+      try {
+        listener.onTimeout(event);
+      } catch (IOException | RuntimeException e) {
+        Constants.context.log(e);
+      }
+    }
+    if (!isCompleted() && !exchangeResponse.isCommitted()) {
+      exchangeResponse.resetBuffer();
+      exchangeResponse.setStatus(500);
+    }
+    complete();
+  }
+
+  /**
+   * Tells the listeners that the response cannot be written, and completes the
+   * request.
+   *
+   * @param error the error while writing the response
+   */
+  void fail(Throwable error) {
+    if (isCompleted())
+      return;
+    AsyncEvent event = new AsyncEvent(this, request, response, error);
+    for (AsyncListener listener : listeners) {
+      try {
+        listener.onError(event);
+      } catch (IOException | RuntimeException e) {
+        Constants.context.log(e);
+      }
+    }
+    complete();
+  }
+}
@@ -0,0 +1,655 @@
+package com.vnexos.sema.standalone;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.security.Principal;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.vnexos.sema.util.StringUtils;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.RequestDispatcher;
+import jakarta.servlet.ServletConnection;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpUpgradeHandler;
+import jakarta.servlet.http.Part;
+
+/**
+ * Represents a request received by the {@link StandaloneServer} as a
+ * {@code HttpServletRequest}, so that it can be handled by the
+ * {@code ApiController} without a servlet container.
+ *
+ * <p>
+ * There is no session, no servlet context and no {@code multipart} config, as
+ * SeMa does not use them. The parameters are only read from the query.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see ExchangeResponse
+ */
+public class ExchangeRequest implements HttpServletRequest {
+  private static final AtomicLong nextId = new AtomicLong();
+
+  private final HttpExchange exchange;
+  private final Executor executor;
+  private final String id = Long.toString(nextId.incrementAndGet());
+  private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+  private ExchangeResponse response;
+  private ExchangeAsyncContext asyncContext;
+  private String characterEncoding;
+  private Map<String, String[]> parameters;
+  private ServletInputStream stream;
+  private BufferedReader reader;
+
+  /**
+   * Constructs a request from an exchange.
+   *
+   * @param exchange the exchange of the server
+   * @param executor the executor running the tasks of the async context
+   */
+  public ExchangeRequest(HttpExchange exchange, Executor executor) {
+    this.exchange = exchange;
+    this.executor = executor;
+    String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+    if (contentType != null) {
+      int index = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+      if (index >= 0) {
+        String charset = contentType.substring(index + 8).trim();
+        int end = charset.indexOf(';');
+        characterEncoding = (end >= 0 ? charset.substring(0, end) : charset).replace("\"", "").trim();
+      }
+    }
+  }
+
+  /**
+   * Sets the response of the request, which is given to the async context.
+   *
+   * @param response the response of the request
+   */
+  void setResponse(ExchangeResponse response) {
+    this.response = response;
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    return attributes.get(name);
+  }
+
+  @Override
+  public Enumeration<String> getAttributeNames() {
+    return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+  }
+
+  @Override
+  public void setAttribute(String name, Object o) {
+    if (o == null)
+      attributes.remove(name);
+    else
+      attributes.put(name, o);
+  }
+
+  @Override
+  public void removeAttribute(String name) {
+    attributes.remove(name);
+  }
+
+  @Override
+  public String getCharacterEncoding() {
+    return characterEncoding;
+  }
+
+  @Override
+  public void setCharacterEncoding(String env) throws UnsupportedEncodingException {
+    if (reader != null)
+      return;
+    try {
+      Charset.forName(env);
+    } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+      throw new UnsupportedEncodingException(env);
+    }
+    characterEncoding = env;
+  }
+
+  @Override
+  public int getContentLength() {
+    long length = getContentLengthLong();
+    return length > Integer.MAX_VALUE ? -1 : (int) length;
+  }
+
+  @Override
+  public long getContentLengthLong() {
+    String length = getHeader("Content-Length");
+    if (length == null)
+      return -1;
+    try {
+      return Long.parseLong(length.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  @Override
+  public String getContentType() {
+    return getHeader("Content-Type");
+  }
+
+  @Override
+  public ServletInputStream getInputStream() throws IOException {
+    if (reader != null)
+      throw new IllegalStateException("getReader() has already been called");
+    if (stream == null)
+      stream = new BodyStream(exchange.getRequestBody());
+    return stream;
+  }
+
+  @Override
+  public String getParameter(String name) {
+    String[] values = getParameterMap().get(name);
+    return values == null ? null : values[0];
+  }
+
+  @Override
+  public Enumeration<String> getParameterNames() {
+    return Collections.enumeration(getParameterMap().keySet());
+  }
+
+  @Override
+  public String[] getParameterValues(String name) {
+    String[] values = getParameterMap().get(name);
+    return values == null ? null : values.clone();
+  }
+
+  @Override
+  public Map<String, String[]> getParameterMap() {
+    if (parameters == null) {
+      Map<String, String[]> map = new LinkedHashMap<>();
+      for (Map.Entry<String, String> item : StringUtils.queryToMap(getQueryString()).entrySet())
+        map.put(item.getKey(), new String[] { item.getValue() });
+      parameters = Collections.unmodifiableMap(map);
+    }
+    return parameters;
+  }
+
+  @Override
+  public String getProtocol() {
+    return exchange.getProtocol();
+  }
+
+  @Override
+  public String getScheme() {
+    return "http";
+  }
+
+  @Override
+  public String getServerName() {
+    String host = getHeader("Host");
+    if (host == null || host.isEmpty())
+      return getLocalName();
+    int index = host.startsWith("[") ? host.indexOf(']') + 1 : host.indexOf(':');
+    return index > 0 && index < host.length() ? host.substring(0, index) : host;
+  }
+
+  @Override
+  public int getServerPort() {
+    String host = getHeader("Host");
+    int index = host == null ? -1 : host.lastIndexOf(':');
+    if (index > 0 && host.indexOf(']', index) < 0) {
+      try {
+        return Integer.parseInt(host.substring(index + 1));
+      } catch (NumberFormatException e) {
+        // Fall back to the port of the connection
+      }
+    }
+    return getLocalPort();
+  }
+
+  @Override
+  public BufferedReader getReader() throws IOException {
+    if (reader == null) {
+      if (stream != null)
+        throw new IllegalStateException("getInputStream() has already been called");
+      String encoding = characterEncoding != null ? characterEncoding : "ISO-8859-1";
+      reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), encoding));
+    }
+    return reader;
+  }
+
+  @Override
+  public String getRemoteAddr() {
+    InetSocketAddress address = exchange.getRemoteAddress();
+    return address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString();
+  }
+
+  @Override
+  public String getRemoteHost() {
+    return exchange.getRemoteAddress().getHostString();
+  }
+
+  @Override
+  public Locale getLocale() {
+    return getLocales().nextElement();
+  }
+
+  @Override
+  public Enumeration<Locale> getLocales() {
+    String header = getHeader("Accept-Language");
+    List<Locale> locales = new ArrayList<>();
+    if (header != null) {
+      try {
+        for (Locale.LanguageRange range : Locale.LanguageRange.parse(header))
+          if (!range.getRange().equals("*"))
+            locales.add(Locale.forLanguageTag(range.getRange()));
+      } catch (IllegalArgumentException e) {
+        // Use the default locale
+      }
+    }
+    if (locales.isEmpty())
+      locales.add(Locale.getDefault());
+    return Collections.enumeration(locales);
+  }
+
+  @Override
+  public boolean isSecure() {
+    return false;
+  }
+
+  @Override
+  public RequestDispatcher getRequestDispatcher(String path) {
+    return null;
+  }
+
+  @Override
+  public int getRemotePort() {
+    return exchange.getRemoteAddress().getPort();
+  }
+
+  @Override
+  public String getLocalName() {
+    return exchange.getLocalAddress().getHostString();
+  }
+
+  @Override
+  public String getLocalAddr() {
+    InetSocketAddress address = exchange.getLocalAddress();
+    return address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString();
+  }
+
+  @Override
+  public int getLocalPort() {
+    return exchange.getLocalAddress().getPort();
+  }
+
+  /**
+   * Gets the servlet context, which does not exist without a servlet
+   * container.
+   *
+   * @return null
+   */
+  @Override
+  public ServletContext getServletContext() {
+    return null;
+  }
+
+  @Override
+  public AsyncContext startAsync() throws IllegalStateException {
+    return startAsync(this, response);
+  }
+
+  @Override
+  public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse)
+      throws IllegalStateException {
+    if (asyncContext != null)
+      throw new IllegalStateException("The request has already been suspended");
+    asyncContext = new ExchangeAsyncContext(servletRequest, servletResponse, response, executor);
+    return asyncContext;
+  }
+
+  @Override
+  public boolean isAsyncStarted() {
+    return asyncContext != null && !asyncContext.isCompleted();
+  }
+
+  @Override
+  public boolean isAsyncSupported() {
+    return true;
+  }
+
+  @Override
+  public AsyncContext getAsyncContext() {
+    if (asyncContext == null)
+      throw new IllegalStateException("The request has not been suspended");
+    return asyncContext;
+  }
+
+  /**
+   * Gets the async context without checking if the request is suspended.
+   *
+   * @return the async context, null if the request has never been suspended
+   */
+  ExchangeAsyncContext getExchangeAsyncContext() {
+    return asyncContext;
+  }
+
+  @Override
+  public DispatcherType getDispatcherType() {
+    return DispatcherType.REQUEST;
+  }
+
+  @Override
+  public String getRequestId() {
+    return id;
+  }
+
+  @Override
+  public String getProtocolRequestId() {
+    return "";
+  }
+
+  @Override
+  public ServletConnection getServletConnection() {
+    return new ServletConnection() {
+      @Override
+      public String getConnectionId() {
+        return Integer.toHexString(System.identityHashCode(exchange.getHttpContext()));
+      }
+
+      @Override
+      public String getProtocol() {
+        return exchange.getProtocol();
+      }
+
+      @Override
+      public String getProtocolConnectionId() {
+        return "";
+      }
+
+      @Override
+      public boolean isSecure() {
+        return false;
+      }
+    };
+  }
+
+  @Override
+  public String getAuthType() {
+    return exchange.getPrincipal() == null ? null : "BASIC";
+  }
+
+  @Override
+  public Cookie[] getCookies() {
+    List<String> headers = exchange.getRequestHeaders().get("Cookie");
+    if (headers == null)
+      return null;
+    List<Cookie> cookies = new ArrayList<>();
+    for (String header : headers) {
+      for (String item : header.split(";")) {
+        int index = item.indexOf('=');
+        if (index <= 0)
+          continue;
+        try {
+          cookies.add(new Cookie(item.substring(0, index).trim(), item.substring(index + 1).trim()));
+        } catch (IllegalArgumentException e) {
+          // Skip the cookies with an invalid name
+        }
+      }
+    }
+    return cookies.isEmpty() ? null : cookies.toArray(new Cookie[0]);
+  }
+
+  @Override
+  public long getDateHeader(String name) {
+    String value = getHeader(name);
+    if (value == null)
+      return -1;
+    try {
+      return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("Cannot convert the header " + name + " into a date", e);
+    }
+  }
+
+  @Override
+  public String getHeader(String name) {
+    return exchange.getRequestHeaders().getFirst(name);
+  }
+
+  @Override
+  public Enumeration<String> getHeaders(String name) {
+    List<String> values = exchange.getRequestHeaders().get(name);
+    return Collections.enumeration(values == null ? Collections.emptyList() : values);
+  }
+
+  @Override
+  public Enumeration<String> getHeaderNames() {
+    return Collections.enumeration(new ArrayList<>(exchange.getRequestHeaders().keySet()));
+  }
+
+  @Override
+  public int getIntHeader(String name) {
+    String value = getHeader(name);
+    return value == null ? -1 : Integer.parseInt(value.trim());
+  }
+
+  @Override
+  public String getMethod() {
+    return exchange.getRequestMethod();
+  }
+
+  @Override
+  public String getPathInfo() {
+    return getRequestURI();
+  }
+
+  @Override
+  public String getPathTranslated() {
+    return null;
+  }
+
+  @Override
+  public String getContextPath() {
+    return "";
+  }
+
+  @Override
+  public String getQueryString() {
+    return exchange.getRequestURI().getRawQuery();
+  }
+
+  @Override
+  public String getRemoteUser() {
+    Principal principal = getUserPrincipal();
+    return principal == null ? null : principal.getName();
+  }
+
+  @Override
+  public boolean isUserInRole(String role) {
+    return false;
+  }
+
+  @Override
+  public Principal getUserPrincipal() {
+    return exchange.getPrincipal();
+  }
+
+  @Override
+  public String getRequestedSessionId() {
+    return null;
+  }
+
+  @Override
+  public String getRequestURI() {
+    return exchange.getRequestURI().getRawPath();
+  }
+
+  @Override
+  public StringBuffer getRequestURL() {
+    StringBuffer url = new StringBuffer(getScheme()).append("://");
+    String host = getHeader("Host");
+    url.append(host != null && !host.isEmpty() ? host : getLocalName() + ":" + getLocalPort());
+    return url.append(getRequestURI());
+  }
+
+  @Override
+  public String getServletPath() {
+    return "";
+  }
+
+  /**
+   * Gets the session of the request, which is not supported without a servlet
+   * container.
+   *
+   * @param create true to create a session
+   * @return null if a session is not created
+   * @throws IllegalStateException if a session is created
+   */
+  @Override
+  public HttpSession getSession(boolean create) {
+    if (create)
+      throw new IllegalStateException("Sessions are not supported by the standalone server");
+    return null;
+  }
+
+  @Override
+  public HttpSession getSession() {
+    return getSession(true);
+  }
+
+  @Override
+  public String changeSessionId() {
+    throw new IllegalStateException("Sessions are not supported by the standalone server");
+  }
+
+  @Override
+  public boolean isRequestedSessionIdValid() {
+    return false;
+  }
+
+  @Override
+  public boolean isRequestedSessionIdFromCookie() {
+    return false;
+  }
+
+  @Override
+  public boolean isRequestedSessionIdFromURL() {
+    return false;
+  }
+
+  @Override
+  public boolean authenticate(HttpServletResponse response) throws IOException, ServletException {
+    return getUserPrincipal() != null;
+  }
+
+  @Override
+  public void login(String username, String password) throws ServletException {
+    throw new ServletException("Login is not supported by the standalone server");
+  }
+
+  @Override
+  public void logout() throws ServletException {
+    throw new ServletException("Logout is not supported by the standalone server");
+  }
+
+  @Override
+  public Collection<Part> getParts() throws IOException, ServletException {
+    throw new ServletException("The multipart config is not supported by the standalone server");
+  }
+
+  @Override
+  public Part getPart(String name) throws IOException, ServletException {
+    throw new ServletException("The multipart config is not supported by the standalone server");
+  }
+
+  @Override
+  public <T extends HttpUpgradeHandler> T upgrade(Class<T> handlerClass) throws IOException, ServletException {
+    throw new ServletException("Upgrading is not supported by the standalone server");
+  }
+
+  @Override
+  public Map<String, String> getTrailerFields() {
+    return new HashMap<>();
+  }
+
+  @Override
+  public boolean isTrailerFieldsReady() {
+    return true;
+  }
+
+  /**
+   * The input stream that reads the body of the exchange.
+   */
+  private static class BodyStream extends ServletInputStream {
+    private final InputStream input;
+    private boolean isFinished = false;
+
+    BodyStream(InputStream input) {
+      this.input = input;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = input.read();
+      if (b < 0)
+        isFinished = true;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int count = input.read(b, off, len);
+      if (count < 0)
+        isFinished = true;
+      return count;
+    }
+
+    @Override
+    public boolean isFinished() {
+      return isFinished;
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+      try {
+        readListener.onDataAvailable();
+        readListener.onAllDataRead();
+      } catch (IOException e) {
+        readListener.onError(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,510 @@
+package com.vnexos.sema.standalone;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Represents the response of an exchange of the {@link StandaloneServer} as a
+ * {@code HttpServletResponse}.
+ *
+ * <p>
+ * The body is kept in a buffer until it is full or flushed. If the response
+ * is finished before that, it is sent with its exact length, otherwise with
+ * the length set by the route, or in chunks. The connection is kept alive by
+ * the server in both cases.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see ExchangeRequest
+ */
+public class ExchangeResponse implements HttpServletResponse {
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.RFC_1123_DATE_TIME
+      .withZone(ZoneOffset.UTC);
+
+  private final HttpExchange exchange;
+  private final Headers headers;
+  private final boolean isHead;
+  private int status = 200;
+  private String contentType;
+  private String characterEncoding;
+  private boolean isEncodingSet = false;
+  private long contentLength = -1;
+  private Locale locale = Locale.getDefault();
+  private byte[] buffer;
+  private int count = 0;
+  private boolean isCommitted = false;
+  private boolean isClosed = false;
+  private BodyStream stream;
+  private PrintWriter writer;
+  private OutputStream body;
+  private ExchangeAsyncContext asyncContext;
+
+  /**
+   * Constructs a response of an exchange.
+   *
+   * @param exchange   the exchange of the server
+   * @param bufferSize the size of the buffer in bytes
+   */
+  public ExchangeResponse(HttpExchange exchange, int bufferSize) {
+    this.exchange = exchange;
+    this.headers = exchange.getResponseHeaders();
+    this.isHead = exchange.getRequestMethod().equals("HEAD");
+    this.buffer = new byte[Math.max(0, bufferSize)];
+  }
+
+  /**
+   * Sets the async context which is told when the client has gone away.
+   *
+   * @param asyncContext the async context of the request
+   */
+  void setAsyncContext(ExchangeAsyncContext asyncContext) {
+    this.asyncContext = asyncContext;
+  }
+
+  @Override
+  public String getCharacterEncoding() {
+    return characterEncoding != null ? characterEncoding : "ISO-8859-1";
+  }
+
+  @Override
+  public String getContentType() {
+    if (contentType == null)
+      return null;
+    return isEncodingSet ? contentType + ";charset=" + characterEncoding : contentType;
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (writer != null)
+      throw new IllegalStateException("getWriter() has already been called");
+    if (stream == null)
+      stream = new BodyStream();
+    return stream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (writer == null) {
+      if (stream != null)
+        throw new IllegalStateException("getOutputStream() has already been called");
+      isEncodingSet = true;
+      characterEncoding = getCharacterEncoding();
+      stream = new BodyStream();
+      writer = new PrintWriter(new OutputStreamWriter(stream, characterEncoding));
+    }
+    return writer;
+  }
+
+  @Override
+  public void setCharacterEncoding(String charset) {
+    if (isCommitted || writer != null)
+      return;
+    characterEncoding = charset;
+    isEncodingSet = charset != null;
+  }
+
+  @Override
+  public void setContentLength(int len) {
+    setContentLengthLong(len);
+  }
+
+  @Override
+  public void setContentLengthLong(long len) {
+    if (!isCommitted)
+      contentLength = len;
+  }
+
+  @Override
+  public void setContentType(String type) {
+    if (isCommitted)
+      return;
+    if (type == null) {
+      contentType = null;
+      return;
+    }
+    int index = type.toLowerCase(Locale.ROOT).indexOf(";charset=");
+    if (index < 0)
+      index = type.toLowerCase(Locale.ROOT).indexOf("; charset=");
+    if (index < 0) {
+      contentType = type;
+      return;
+    }
+    contentType = type.substring(0, index).trim();
+    if (writer == null)
+      setCharacterEncoding(type.substring(type.indexOf('=', index) + 1).replace("\"", "").trim());
+  }
+
+  @Override
+  public void setBufferSize(int size) {
+    if (isCommitted || count > 0)
+      throw new IllegalStateException("The body has already been written");
+    buffer = new byte[Math.max(0, size)];
+  }
+
+  @Override
+  public int getBufferSize() {
+    return buffer.length;
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (writer != null)
+      writer.flush();
+    commit(false);
+    writeBuffer();
+    body.flush();
+  }
+
+  @Override
+  public void resetBuffer() {
+    if (isCommitted)
+      throw new IllegalStateException("The response has already been committed");
+    count = 0;
+  }
+
+  @Override
+  public boolean isCommitted() {
+    return isCommitted;
+  }
+
+  @Override
+  public void reset() {
+    resetBuffer();
+    headers.clear();
+    status = 200;
+    contentType = null;
+    characterEncoding = null;
+    isEncodingSet = false;
+    contentLength = -1;
+    stream = null;
+    writer = null;
+  }
+
+  @Override
+  public void setLocale(Locale loc) {
+    if (!isCommitted && loc != null)
+      locale = loc;
+  }
+
+  @Override
+  public Locale getLocale() {
+    return locale;
+  }
+
+  @Override
+  public void addCookie(Cookie cookie) {
+    StringBuilder header = new StringBuilder(cookie.getName()).append('=').append(cookie.getValue());
+    if (cookie.getMaxAge() >= 0)
+      header.append("; Max-Age=").append(cookie.getMaxAge());
+    if (cookie.getDomain() != null)
+      header.append("; Domain=").append(cookie.getDomain());
+    if (cookie.getPath() != null)
+      header.append("; Path=").append(cookie.getPath());
+    if (cookie.getSecure())
+      header.append("; Secure");
+    if (cookie.isHttpOnly())
+      header.append("; HttpOnly");
+    addHeader("Set-Cookie", header.toString());
+  }
+
+  @Override
+  public boolean containsHeader(String name) {
+    return getHeader(name) != null;
+  }
+
+  @Override
+  public String encodeURL(String url) {
+    return url;
+  }
+
+  @Override
+  public String encodeRedirectURL(String url) {
+    return url;
+  }
+
+  @Override
+  public void sendError(int sc, String msg) throws IOException {
+    if (isCommitted)
+      throw new IllegalStateException("The response has already been committed");
+    resetBuffer();
+    stream = null;
+    writer = null;
+    status = sc;
+    if (msg != null) {
+      setContentType("text/plain;charset=UTF-8");
+      getWriter().write(msg);
+    }
+    close();
+  }
+
+  @Override
+  public void sendError(int sc) throws IOException {
+    sendError(sc, null);
+  }
+
+  @Override
+  public void sendRedirect(String location, int sc, boolean clearBuffer) throws IOException {
+    if (isCommitted)
+      throw new IllegalStateException("The response has already been committed");
+    if (clearBuffer)
+      resetBuffer();
+    status = sc;
+    setHeader("Location", location);
+    close();
+  }
+
+  @Override
+  public void setDateHeader(String name, long date) {
+    setHeader(name, DATE_FORMAT.format(Instant.ofEpochMilli(date)));
+  }
+
+  @Override
+  public void addDateHeader(String name, long date) {
+    addHeader(name, DATE_FORMAT.format(Instant.ofEpochMilli(date)));
+  }
+
+  @Override
+  public void setHeader(String name, String value) {
+    if (isCommitted)
+      return;
+    if (name.equalsIgnoreCase("Content-Type")) {
+      setContentType(value);
+    } else if (name.equalsIgnoreCase("Content-Length")) {
+      setContentLengthLong(value == null ? -1 : Long.parseLong(value.trim()));
+    } else if (value == null) {
+      headers.remove(name);
+    } else {
+      headers.set(name, value);
+    }
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    if (isCommitted || value == null)
+      return;
+    if (name.equalsIgnoreCase("Content-Type") || name.equalsIgnoreCase("Content-Length"))
+      setHeader(name, value);
+    else
+      headers.add(name, value);
+  }
+
+  @Override
+  public void setIntHeader(String name, int value) {
+    setHeader(name, Integer.toString(value));
+  }
+
+  @Override
+  public void addIntHeader(String name, int value) {
+    addHeader(name, Integer.toString(value));
+  }
+
+  @Override
+  public void setStatus(int sc) {
+    if (!isCommitted)
+      status = sc;
+  }
+
+  @Override
+  public int getStatus() {
+    return status;
+  }
+
+  @Override
+  public String getHeader(String name) {
+    if (name.equalsIgnoreCase("Content-Type"))
+      return getContentType();
+    if (name.equalsIgnoreCase("Content-Length"))
+      return contentLength >= 0 ? Long.toString(contentLength) : null;
+    return headers.getFirst(name);
+  }
+
+  @Override
+  public Collection<String> getHeaders(String name) {
+    String value = getHeader(name);
+    if (value == null)
+      return new ArrayList<>();
+    if (name.equalsIgnoreCase("Content-Type") || name.equalsIgnoreCase("Content-Length"))
+      return List.of(value);
+    return new ArrayList<>(headers.get(name));
+  }
+
+  @Override
+  public Collection<String> getHeaderNames() {
+    List<String> names = new ArrayList<>(headers.keySet());
+    if (contentType != null)
+      names.add("Content-Type");
+    if (contentLength >= 0)
+      names.add("Content-Length");
+    return names;
+  }
+
+  /**
+   * Sends the rest of the response and closes the exchange. Nothing can be
+   * written after it.
+   *
+   * @throws IOException if the response cannot be sent
+   */
+  void close() throws IOException {
+    if (isClosed)
+      return;
+    try {
+      if (writer != null)
+        writer.flush();
+      commit(true);
+      writeBuffer();
+      body.close();
+    } finally {
+      isClosed = true;
+      exchange.close();
+    }
+  }
+
+  /**
+   * Sends the status and the headers, if they have not been sent.
+   *
+   * @param isFinished true if the whole body is in the buffer
+   * @throws IOException if the headers cannot be sent
+   */
+  private void commit(boolean isFinished) throws IOException {
+    if (isCommitted)
+      return;
+    isCommitted = true;
+    if (contentType != null)
+      headers.set("Content-Type", getContentType());
+
+    long length;
+    if (isHead || status == 204 || status == 304 || (status >= 100 && status < 200)) {
+      // The length of a HEAD response is the one of its GET response
+      if (isHead && contentLength >= 0)
+        headers.set("Content-Length", Long.toString(contentLength));
+      length = -1;
+      count = 0;
+    } else if (isFinished) {
+      length = count == 0 ? -1 : count;
+    } else {
+      length = contentLength > 0 ? contentLength : 0;
+    }
+    try {
+      exchange.sendResponseHeaders(status, length);
+    } catch (IOException e) {
+      fail(e);
+      throw e;
+    }
+    body = exchange.getResponseBody();
+  }
+
+  /**
+   * Sends the bytes kept in the buffer.
+   *
+   * @throws IOException if the bytes cannot be sent
+   */
+  private void writeBuffer() throws IOException {
+    if (count == 0)
+      return;
+    int length = count;
+    count = 0;
+    if (isHead)
+      return;
+    try {
+      body.write(buffer, 0, length);
+    } catch (IOException e) {
+      fail(e);
+      throw e;
+    }
+  }
+
+  /**
+   * Tells the async context that the client has gone away, so that the
+   * request is completed.
+   *
+   * @param error the error while writing the response
+   */
+  private void fail(IOException error) {
+    if (asyncContext != null)
+      asyncContext.fail(error);
+  }
+
+  /**
+   * The output stream that writes to the buffer, then to the exchange once
+   * the buffer is full.
+   */
+  private class BodyStream extends ServletOutputStream {
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (isClosed)
+        throw new IOException("The response has already been closed");
+      if (isCommitted && isHead)
+        return;
+      if (count + len <= buffer.length) {
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+        return;
+      }
+      commit(false);
+      writeBuffer();
+      if (isHead)
+        return;
+      try {
+        body.write(b, off, len);
+      } catch (IOException e) {
+        fail(e);
+        throw e;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (isClosed)
+        return;
+      commit(false);
+      writeBuffer();
+      try {
+        body.flush();
+      } catch (IOException e) {
+        fail(e);
+        throw e;
+      }
+    }
+
+    /**
+     * Checks if the stream can be written without blocking. The writes of the
+     * exchange always block, which is cheap on a virtual thread.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      try {
+        writeListener.onWritePossible();
+      } catch (IOException e) {
+        writeListener.onError(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package com.vnexos.sema.standalone;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.vnexos.sema.ApiController;
+import com.vnexos.sema.AppInitializer;
+import com.vnexos.sema.Constants;
+
+import jakarta.servlet.ServletException;
+
+/**
+ * Runs SeMa on the HTTP server of the JDK, without a servlet container.
+ *
+ * <p>
+ * The server goes through the same steps as the WAR: the
+ * {@link AppInitializer} loads the config, the database and the modules, then
+ * every request is handled by the {@link ApiController}. Each exchange runs on
+ * its own virtual thread, and HTTP/1.1 connections are kept alive between the
+ * requests.
+ *
+ * <p>
+ * The folder of the config file and the modules is the first argument, or the
+ * working directory. The server listens on {@code server.port}, and stops
+ * gracefully when the JVM shuts down: new connections are refused, then the
+ * running requests have {@code server.shutdown-timeout} seconds to finish
+ * before the modules are unloaded.
+ *
+ * <pre>
+ * java -cp core-lib.jar:jakarta.servlet-api.jar:gson.jar com.vnexos.sema.standalone.StandaloneServer /opt/sema
+ * </pre>
+ *
+ * @author Trần Việt Đăng Quang
+ */
+public class StandaloneServer {
+  private final AppInitializer initializer = new AppInitializer();
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final CountDownLatch stopped = new CountDownLatch(1);
+  private final Object lock = new Object();
+  private int running = 0;
+  private volatile boolean isStopping = false;
+  private ApiController controller;
+  private HttpServer server;
+  private int bufferSize;
+  private int shutdownTimeout;
+
+  /**
+   * Starts the server.
+   *
+   * @param args the folder of the config file and the modules, optional
+   * @throws Exception if the server cannot be started
+   */
+  public static void main(String[] args) throws Exception {
+    StandaloneServer standalone = new StandaloneServer();
+    standalone.start(args.length > 0 ? args[0] : System.getProperty("user.dir"));
+    Runtime.getRuntime().addShutdownHook(new Thread(standalone::stop, "sema-shutdown"));
+    standalone.stopped.await();
+  }
+
+  /**
+   * Loads the modules and starts listening for requests.
+   *
+   * @param path the folder of the config file and the modules
+   * @throws Exception if the modules cannot be loaded or the port cannot be
+   *                   bound
+   */
+  public void start(String path) throws Exception {
+    long time = System.currentTimeMillis();
+    AppInitializer.initContext(path);
+    try {
+      initializer.start();
+    } catch (Exception e) {
+      // Keep serving the loaded routes, as the servlet container does
+      Constants.context.log(e);
+    }
+
+    // The server reads these properties once, when its class is loaded
+    setDefault("sun.net.httpserver.idleInterval", Math.max(1, Constants.getInteger("server.keep-alive", 30)));
+    setDefault("sun.net.httpserver.maxIdleConnections",
+        Math.max(0, Constants.getInteger("server.max-idle-connections", 200)));
+    bufferSize = Math.max(0, Constants.getInteger("server.buffer-size", 8192));
+    shutdownTimeout = Math.max(0, Constants.getInteger("server.shutdown-timeout", 10));
+
+    controller = new ApiController();
+    controller.init();
+
+    String host = Constants.getString("server.host", "");
+    int port = Constants.getInteger("server.port", 8080);
+    InetSocketAddress address = host.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(host, port);
+    server = HttpServer.create(address, Constants.getInteger("server.backlog", 0));
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+    server.start();
+    Constants.context.info("Listening on port " + server.getAddress().getPort() + " ("
+        + (System.currentTimeMillis() - time) + " ms)");
+  }
+
+  /**
+   * Sets a system property, unless it has been given to the JVM.
+   *
+   * @param key   the name of the property
+   * @param value the value of the property
+   */
+  private static void setDefault(String key, int value) {
+    if (System.getProperty(key) == null)
+      System.setProperty(key, Integer.toString(value));
+  }
+
+  /**
+   * Stops accepting connections, waits for the running requests, then unloads
+   * the modules. Only the first call stops the server.
+   */
+  public void stop() {
+    if (stopped.getCount() == 0 || server == null)
+      return;
+    try {
+      isStopping = true;
+      awaitRunning(shutdownTimeout * 1000L);
+      server.stop(0);
+      controller.destroy();
+      executor.shutdownNow();
+      initializer.stop();
+    } finally {
+      stopped.countDown();
+    }
+  }
+
+  /**
+   * Waits for the running requests to finish. The server of the JDK 21 waits
+   * for the whole delay given to {@code stop}, even if nothing is running, so
+   * they are counted here instead.
+   *
+   * @param timeout the maximum time to wait in milliseconds
+   */
+  private void awaitRunning(long timeout) {
+    long deadline = System.currentTimeMillis() + timeout;
+    synchronized (lock) {
+      long wait;
+      while (running > 0 && (wait = deadline - System.currentTimeMillis()) > 0) {
+        try {
+          lock.wait(wait);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the port the server listens on, which is useful when
+   * {@code server.port} is 0.
+   *
+   * @return the port of the server
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Handles an exchange with the controller, then waits for the request to be
+   * completed if it has been suspended. The exchanges arriving while the
+   * server stops are answered with {@code 503}.
+   *
+   * @param exchange the exchange of the server
+   * @throws IOException if the exchange cannot be answered
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    synchronized (lock) {
+      running++;
+    }
+    try {
+      if (isStopping) {
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(503, -1);
+        exchange.close();
+        return;
+      }
+      handle(new ExchangeRequest(exchange, executor), new ExchangeResponse(exchange, bufferSize));
+    } finally {
+      synchronized (lock) {
+        if (--running == 0)
+          lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Handles a request with the controller, then sends the response.
+   *
+   * @param request  the request of the exchange
+   * @param response the response of the exchange
+   */
+  private void handle(ExchangeRequest request, ExchangeResponse response) {
+    request.setResponse(response);
+    try {
+      controller.service(request, response);
+      ExchangeAsyncContext async = request.getExchangeAsyncContext();
+      if (async != null)
+        async.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException | ServletException | RuntimeException e) {
+      Constants.context.log(e);
+      if (!response.isCommitted()) {
+        response.resetBuffer();
+        response.setStatus(500);
+      }
+    }
+
+    try {
+      response.close();
+    } catch (IOException e) {
+      // The client has gone away
+    }
+  }
+}
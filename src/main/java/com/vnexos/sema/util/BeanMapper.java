@@ -0,0 +1,543 @@
+package com.vnexos.sema.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.internal.$Gson$Types;
+import com.google.gson.internal.Excluder;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Maps the objects straight from field to field, without writing them into
+ * JSON and reading them back.
+ *
+ * <p>
+ * A copy plan is made once per destination class, and once per pair of source
+ * and destination classes. It holds the constructor, the setters and the
+ * getters as {@code MethodHandle}s, and a converter for each field. The fields
+ * and their names are chosen as Gson chooses them, so the result is the same
+ * as the one of Gson. The {@code Map}, {@code JsonObject} and bean sources are
+ * copied into beans, and strings are converted into numbers, {@code UUID} and
+ * enums directly. Any other shape, or any value which cannot be converted
+ * directly, is mapped by Gson.
+ *
+ * @author Trần Việt Đăng Quang
+ * @see Mapper
+ */
+final class BeanMapper {
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+  private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+  private static final Set<Class<?>> IMMUTABLE_TYPES = Set.of(String.class, Integer.class, Long.class,
+      Double.class, Float.class, Short.class, Byte.class, Boolean.class, Character.class, UUID.class,
+      BigDecimal.class, BigInteger.class, LocalDate.class, LocalDateTime.class, LocalTime.class);
+  private static final Set<Class<?>> TEXT_TYPES = Set.of(short.class, Short.class, byte.class, Byte.class,
+      char.class, Character.class);
+  private static final CopyPlan UNSUPPORTED = new CopyPlan(null, null, null);
+
+  private final Gson gson;
+  private final ClassValue<BeanPlan> plans = new ClassValue<>() {
+    @Override
+    protected BeanPlan computeValue(Class<?> type) {
+      return createPlan(type);
+    }
+  };
+
+  /**
+   * Constructs the mapper for the given {@code Gson}, whose settings are
+   * followed.
+   *
+   * @param gson the {@code Gson} used by {@link Mapper}
+   */
+  BeanMapper(Gson gson) {
+    this.gson = gson;
+  }
+
+  /**
+   * Maps the source to the destination type.
+   *
+   * @param source      the data source, not null
+   * @param destination the destination type
+   * @return the mapped data in destination type
+   */
+  Object map(Object source, Class<?> destination) {
+    if (source instanceof String) {
+      String value = (String) source;
+      Kind kind = Kind.of(destination);
+      if (kind != Kind.OTHER && kind != Kind.BEAN) {
+        Object converted = convertString(value, kind, destination);
+        if (converted != null)
+          return converted;
+      }
+      return gson.fromJson(value, destination);
+    }
+
+    BeanPlan plan = plans.get(destination);
+    if (plan != null) {
+      if (source instanceof JsonObject)
+        return plan.copy((JsonObject) source);
+      if (source instanceof Map)
+        return plan.copy((Map<?, ?>) source);
+      CopyPlan copyPlan = plan.getCopyPlan(source.getClass());
+      if (copyPlan != UNSUPPORTED)
+        return copyPlan.copy(source);
+    }
+    return gson.fromJson(gson.toJson(source), destination);
+  }
+
+  /**
+   * Converts a string into a simple type.
+   *
+   * @param value the string to convert
+   * @param kind  the kind of the type
+   * @param type  the type to convert into
+   * @return the converted value, null if it must be converted by Gson
+   */
+  private Object convertString(String value, Kind kind, Class<?> type) {
+    try {
+      switch (kind) {
+        case STRING:
+          return value;
+        case INT:
+          return Integer.parseInt(value);
+        case LONG:
+          return Long.parseLong(value);
+        case DOUBLE:
+          double number = Double.parseDouble(value);
+          return Double.isFinite(number) ? number : null;
+        case FLOAT:
+          float floatNumber = (float) Double.parseDouble(value);
+          return Float.isFinite(floatNumber) ? floatNumber : null;
+        case BOOLEAN:
+          return Boolean.parseBoolean(value);
+        case UUID:
+          return java.util.UUID.fromString(value);
+        case ENUM:
+          return gson.getAdapter(type).fromJsonTree(new JsonPrimitive(value));
+        default:
+          return null;
+      }
+    } catch (IllegalArgumentException e) {
+      // Let Gson parse it, or report the error as it always has
+      return null;
+    }
+  }
+
+  /**
+   * Creates the plan of a destination class.
+   *
+   * @param type the destination class
+   * @return the plan, null if the class must be mapped by Gson
+   */
+  private BeanPlan createPlan(Class<?> type) {
+    if (!isBean(type) || Modifier.isAbstract(type.getModifiers()))
+      return null;
+    try {
+      Constructor<?> constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      MethodHandle creator = MethodHandles.lookup().unreflectConstructor(constructor).asType(CONSTRUCTOR_TYPE);
+
+      @SuppressWarnings("deprecation")
+      Excluder excluder = gson.excluder();
+      Map<String, Target> targets = new HashMap<>();
+      for (Class<?> current = type; current != Object.class; current = current.getSuperclass()) {
+        for (Field field : current.getDeclaredFields()) {
+          if (excluder.excludeClass(field.getType(), false) || excluder.excludeField(field, false))
+            continue;
+          if (field.isAnnotationPresent(JsonAdapter.class))
+            return null;
+          field.setAccessible(true);
+          MethodHandle setter = MethodHandles.lookup().unreflectSetter(field).asType(SETTER_TYPE);
+          Type fieldType = $Gson$Types.resolve(type, type, field.getGenericType());
+          Target target = new Target(setter, fieldType, field.getType());
+          for (String name : getNames(field, false))
+            if (targets.put(name, target) != null)
+              return null; // Let Gson report the duplicated names
+        }
+      }
+      return new BeanPlan(creator, targets);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Creates the plan to copy the beans of a source class.
+   *
+   * @param source the source class
+   * @param plan   the plan of the destination class
+   * @return the plan, {@link #UNSUPPORTED} if the source is not a bean
+   */
+  private CopyPlan createCopyPlan(Class<?> source, BeanPlan plan) {
+    if (!isBean(source))
+      return UNSUPPORTED;
+    try {
+      @SuppressWarnings("deprecation")
+      Excluder excluder = gson.excluder();
+      List<MethodHandle> getters = new ArrayList<>();
+      List<Target> targets = new ArrayList<>();
+      Set<String> names = new HashSet<>();
+      for (Class<?> current = source; current != Object.class; current = current.getSuperclass()) {
+        for (Field field : current.getDeclaredFields()) {
+          if (excluder.excludeClass(field.getType(), true) || excluder.excludeField(field, true))
+            continue;
+          if (field.isAnnotationPresent(JsonAdapter.class))
+            return UNSUPPORTED;
+          String name = getNames(field, true).get(0);
+          if (!names.add(name))
+            return UNSUPPORTED;
+          Target target = plan.targets.get(name);
+          if (target == null)
+            continue;
+          field.setAccessible(true);
+          getters.add(MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE));
+          targets.add(target);
+        }
+      }
+      return new CopyPlan(plan, getters.toArray(new MethodHandle[0]), targets.toArray(new Target[0]));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return UNSUPPORTED;
+    }
+  }
+
+  /**
+   * Gets the names of a field in JSON, as Gson does.
+   *
+   * @param field     the field
+   * @param serialize true for the name which is written, false for all names
+   *                  which are read
+   * @return the names of the field
+   */
+  private List<String> getNames(Field field, boolean serialize) {
+    SerializedName serializedName = field.getAnnotation(SerializedName.class);
+    if (serializedName == null)
+      return List.of(gson.fieldNamingStrategy().translateName(field));
+    List<String> names = new ArrayList<>();
+    names.add(serializedName.value());
+    if (!serialize)
+      names.addAll(List.of(serializedName.alternate()));
+    return names;
+  }
+
+  /**
+   * Checks if the class is written and read by Gson field by field.
+   *
+   * @param type the class to check
+   * @return true if the class is a bean, false otherwise
+   */
+  private static boolean isBean(Class<?> type) {
+    return !type.isInterface() && !type.isArray() && !type.isEnum() && !type.isRecord()
+        && !type.isAnonymousClass() && !type.isLocalClass()
+        && (type.getEnclosingClass() == null || Modifier.isStatic(type.getModifiers()))
+        && !ClassUtils.isJavaBuiltInClass(type) && !Map.class.isAssignableFrom(type)
+        && !Collection.class.isAssignableFrom(type) && !JsonElement.class.isAssignableFrom(type)
+        && !type.isAnnotationPresent(JsonAdapter.class);
+  }
+
+  /**
+   * The kinds of field types which are converted without Gson.
+   */
+  private enum Kind {
+    STRING, INT, LONG, DOUBLE, FLOAT, BOOLEAN, UUID, ENUM, BEAN, OTHER;
+
+    /**
+     * Gets the kind of a type.
+     *
+     * @param type the raw type
+     * @return the kind of the type
+     */
+    static Kind of(Class<?> type) {
+      if (type == String.class)
+        return STRING;
+      if (type == int.class || type == Integer.class)
+        return INT;
+      if (type == long.class || type == Long.class)
+        return LONG;
+      if (type == double.class || type == Double.class)
+        return DOUBLE;
+      if (type == float.class || type == Float.class)
+        return FLOAT;
+      if (type == boolean.class || type == Boolean.class)
+        return BOOLEAN;
+      if (type == java.util.UUID.class)
+        return UUID;
+      if (type.isEnum())
+        return ENUM;
+      if (isBean(type))
+        return BEAN;
+      return OTHER;
+    }
+  }
+
+  /**
+   * Represents a field of a destination class, with its converter.
+   */
+  private class Target {
+    final MethodHandle setter;
+    final Type type;
+    final Class<?> rawType;
+    final Kind kind;
+    final TypeAdapter<?> adapter;
+    final boolean isTreeReadable;
+
+    Target(MethodHandle setter, Type type, Class<?> rawType) {
+      this.setter = setter;
+      this.type = type;
+      this.rawType = rawType;
+      this.kind = Kind.of(rawType);
+      this.adapter = gson.getAdapter(TypeToken.get(type));
+      // Gson reads these types from the text of the token, which a tree does not keep
+      this.isTreeReadable = kind == Kind.ENUM || kind == Kind.BEAN
+          || (kind == Kind.OTHER && !TEXT_TYPES.contains(rawType));
+    }
+
+    /**
+     * Sets the field to the converted value.
+     *
+     * @param bean  the destination object
+     * @param value the value, not null
+     * @throws Throwable if the value cannot be converted or set
+     */
+    void set(Object bean, Object value) throws Throwable {
+      Object converted = convert(value);
+      // Gson keeps the default value of a primitive field read as null
+      if (converted != null || !rawType.isPrimitive())
+        setter.invokeExact(bean, converted);
+    }
+
+    /**
+     * Converts a value into the type of the field.
+     *
+     * @param value the value, not null
+     * @return the converted value
+     */
+    Object convert(Object value) {
+      if (value instanceof JsonPrimitive) {
+        JsonPrimitive primitive = (JsonPrimitive) value;
+        if (isTreeReadable)
+          return adapter.fromJsonTree(primitive);
+        value = primitive.isString() ? primitive.getAsString()
+            : primitive.isBoolean() ? (Object) primitive.getAsBoolean() : primitive.getAsNumber();
+      } else if (value instanceof JsonElement) {
+        if (kind == Kind.BEAN && value instanceof JsonObject)
+          return map(value, rawType);
+        return adapter.fromJsonTree((JsonElement) value);
+      }
+
+      Object converted = convertValue(value);
+      return converted != null ? converted : gson.fromJson(gson.toJson(value), type);
+    }
+
+    /**
+     * Converts a value which is not from JSON.
+     *
+     * @param value the value, not null
+     * @return the converted value, null if it must be converted by Gson
+     */
+    private Object convertValue(Object value) {
+      if (value.getClass() == rawType && (IMMUTABLE_TYPES.contains(rawType) || rawType.isEnum()))
+        return value;
+      if (value instanceof String)
+        return isTreeReadable && kind != Kind.BEAN ? adapter.fromJsonTree(new JsonPrimitive((String) value))
+            : convertString((String) value, kind, rawType);
+      if (value instanceof Number)
+        return isTreeReadable && kind != Kind.BEAN ? adapter.fromJsonTree(new JsonPrimitive((Number) value))
+            : convertNumber((Number) value);
+      if (value instanceof Boolean)
+        return kind == Kind.BOOLEAN ? value : kind == Kind.STRING ? value.toString() : null;
+      if (kind == Kind.BEAN && (value instanceof Map || isBean(value.getClass())))
+        return map(value, rawType);
+      return null;
+    }
+
+    /**
+     * Converts a number into the type of the field, as Gson reads it from its
+     * text.
+     *
+     * @param number the number to convert
+     * @return the converted value, null if it must be converted by Gson
+     */
+    private Object convertNumber(Number number) {
+      boolean isIntegral = number instanceof Integer || number instanceof Long || number instanceof Short
+          || number instanceof Byte;
+      switch (kind) {
+        case STRING:
+          return number instanceof Double || number instanceof Float ? null : number.toString();
+        case INT:
+          if (!isIntegral)
+            return convertString(number.toString(), kind, rawType);
+          long value = number.longValue();
+          return value == (int) value ? (Object) (int) value : null;
+        case LONG:
+          return isIntegral ? (Object) number.longValue() : convertString(number.toString(), kind, rawType);
+        case DOUBLE:
+          return isIntegral || number instanceof Double || number instanceof Float ? (Object) number.doubleValue()
+              : convertString(number.toString(), kind, rawType);
+        case FLOAT:
+          return isIntegral || number instanceof Double || number instanceof Float
+              ? (Object) (float) number.doubleValue()
+              : convertString(number.toString(), kind, rawType);
+        default:
+          return null;
+      }
+    }
+  }
+
+  /**
+   * Represents a destination class with its constructor and its fields by name.
+   */
+  private class BeanPlan {
+    final MethodHandle creator;
+    final Map<String, Target> targets;
+    final Map<Class<?>, CopyPlan> copyPlans = new ConcurrentHashMap<>();
+
+    BeanPlan(MethodHandle creator, Map<String, Target> targets) {
+      this.creator = creator;
+      this.targets = targets;
+    }
+
+    /**
+     * Gets the plan to copy the beans of a source class.
+     *
+     * @param source the source class
+     * @return the plan, {@link #UNSUPPORTED} if the source is not a bean
+     */
+    CopyPlan getCopyPlan(Class<?> source) {
+      CopyPlan plan = copyPlans.get(source);
+      if (plan == null)
+        plan = copyPlans.computeIfAbsent(source, type -> createCopyPlan(type, this));
+      return plan;
+    }
+
+    /**
+     * Creates a destination object.
+     *
+     * @return the new object
+     */
+    Object create() {
+      try {
+        return creator.invokeExact();
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException("Cannot create the destination object", e);
+      }
+    }
+
+    /**
+     * Copies the members of a JSON object into a new destination object. As
+     * the {@code null} members are not written by Gson, they are skipped.
+     *
+     * @param source the JSON object
+     * @return the new object
+     */
+    Object copy(JsonObject source) {
+      Object bean = create();
+      for (Map.Entry<String, JsonElement> entry : source.entrySet())
+        if (!entry.getValue().isJsonNull())
+          set(bean, entry.getKey(), entry.getValue());
+      return bean;
+    }
+
+    /**
+     * Copies the entries of a map into a new destination object. As the
+     * {@code null} values are not written by Gson, they are skipped.
+     *
+     * @param source the map
+     * @return the new object
+     */
+    Object copy(Map<?, ?> source) {
+      Object bean = create();
+      for (Map.Entry<?, ?> entry : source.entrySet())
+        if (entry.getValue() != null && !(entry.getValue() instanceof JsonNull))
+          set(bean, String.valueOf(entry.getKey()), entry.getValue());
+      return bean;
+    }
+
+    /**
+     * Sets the field of the given name, if there is one.
+     *
+     * @param bean  the destination object
+     * @param name  the name of the field in JSON
+     * @param value the value, not null
+     */
+    private void set(Object bean, String name, Object value) {
+      Target target = targets.get(name);
+      if (target == null)
+        return;
+      try {
+        target.set(bean, value);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException("Cannot set the field " + name, e);
+      }
+    }
+  }
+
+  /**
+   * Represents the fields copied from a source class to a destination class.
+   */
+  private static class CopyPlan {
+    final BeanPlan plan;
+    final MethodHandle[] getters;
+    final Target[] targets;
+
+    CopyPlan(BeanPlan plan, MethodHandle[] getters, Target[] targets) {
+      this.plan = plan;
+      this.getters = getters;
+      this.targets = targets;
+    }
+
+    /**
+     * Copies the fields of a source object into a new destination object. As
+     * Gson does, the {@code null} fields and the fields referring to their own
+     * object are skipped.
+     *
+     * @param source the source object
+     * @return the new object
+     */
+    Object copy(Object source) {
+      Object bean = plan.create();
+      try {
+        for (int i = 0; i < getters.length; i++) {
+          Object value = getters[i].invokeExact(source);
+          if (value != null && value != source)
+            targets[i].set(bean, value);
+        }
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException("Cannot copy the fields of " + source.getClass().getName(), e);
+      }
+      return bean;
+    }
+  }
+}
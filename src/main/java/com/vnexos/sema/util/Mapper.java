@@ -1,5 +1,9 @@
 package com.vnexos.sema.util;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -11,15 +15,22 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.Strictness;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
 import com.vnexos.sema.loader.json.HiddenExclusionStrategy;
 import com.vnexos.sema.loader.json.LocalDateAdapter;
 import com.vnexos.sema.loader.json.LocalDateTimeAdapter;
 import com.vnexos.sema.loader.json.LocalTimeAdapter;
+import com.vnexos.sema.loader.json.ReorderFactory;
 
 /**
  * Implements necessary utilities for Mapping data.
  * <p>
- * The Mapper use Gson as the central to map 2 type of data.
+ * The Mapper use Gson as the central to map 2 type of data. The beans, maps
+ * and JSON objects are copied into beans field by field, and strings are
+ * converted into simple types directly, so only the other types are written
+ * into JSON and read back.
  * 
  * 
  */
@@ -32,7 +43,9 @@ public class Mapper {
       .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
       .registerTypeAdapter(LocalDate.class, new LocalDateAdapter())
       .registerTypeAdapter(LocalTime.class, new LocalTimeAdapter())
+      .registerTypeAdapterFactory(new ReorderFactory())
       .create();
+  private static final BeanMapper beanMapper = new BeanMapper(gson);
 
   /**
    * Maps the source to the specific type.
@@ -56,8 +69,52 @@ public class Mapper {
       return (D) gson.toJson(source);
     }
 
-    String json = source instanceof String ? (String) source : gson.toJson(source);
-    return gson.fromJson(json, destination);
+    return (D) beanMapper.map(source, destination);
+  }
+
+  /**
+   * Gets the cached adapter which is used to map JSON to the given type.
+   * 
+   * @param <T>  the type to map
+   * @param type the class of type
+   * @return the adapter of the type
+   */
+  public static <T> TypeAdapter<T> getAdapter(Class<T> type) {
+    return gson.getAdapter(type);
+  }
+
+  /**
+   * Reads JSON from a string by the given adapter.
+   * 
+   * @param <T>     the type to read
+   * @param json    the JSON string
+   * @param adapter the adapter get from {@link #getAdapter(Class)}
+   * @return the read object, null if the JSON is empty
+   * @throws IOException if the JSON cannot be read
+   */
+  public static <T> T read(String json, TypeAdapter<T> adapter) throws IOException {
+    return read(new StringReader(json), adapter);
+  }
+
+  /**
+   * Reads JSON from a reader by the given adapter. Like Gson, the reader is
+   * lenient and an empty input is read as null.
+   * 
+   * @param <T>     the type to read
+   * @param in      the reader contains JSON
+   * @param adapter the adapter get from {@link #getAdapter(Class)}
+   * @return the read object, null if the JSON is empty
+   * @throws IOException if the JSON cannot be read
+   */
+  public static <T> T read(Reader in, TypeAdapter<T> adapter) throws IOException {
+    JsonReader reader = new JsonReader(in);
+    reader.setStrictness(Strictness.LENIENT);
+    try {
+      reader.peek();
+    } catch (EOFException e) {
+      return null;
+    }
+    return adapter.read(reader);
   }
 
   /**
@@ -66,18 +66,24 @@ public class StringUtils {
    */
   public static Map<String, String> queryToMap(String query) {
     Map<String, String> params = new HashMap<>();
-    if (query != null && !query.isEmpty()) {
-      String[] pairs = query.split("&");
-      for (String pair : pairs) {
-        String[] keyValue = pair.split("=", 2); // Split on first '=' only
-        if (keyValue.length == 2) {
-          String key = keyValue[0];
-          String value = URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8);
-          params.put(key, value);
-        }
+    if (query == null || query.isEmpty())
+      return params;
+
+    int start = 0;
+    while (start <= query.length()) {
+      int end = query.indexOf('&', start);
+      if (end < 0)
+        end = query.length();
+      int equal = query.indexOf('=', start);
+      if (equal >= 0 && equal < end) {
+        String value = query.substring(equal + 1, end);
+        // Only decode the values which have encoded characters
+        if (value.indexOf('%') >= 0 || value.indexOf('+') >= 0)
+          value = URLDecoder.decode(value, StandardCharsets.UTF_8);
+        params.put(query.substring(start, equal), value);
       }
+      start = end + 1;
     }
-
     return params;
   }
 }
@@ -0,0 +1,102 @@
+package com.vnexos.sema.loader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.Gson;
+import com.vnexos.sema.http.Cbor;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Tests the reading of CBOR bodies by {@link RequestBody}.
+ *
+ * @author Trần Việt Đăng Quang
+ */
+class RequestBodyTest {
+  /**
+   * An indefinite-length array which ends before its break byte.
+   */
+  private static final byte[] TRUNCATED = { (byte) 0x9f, 0x01 };
+
+  @Test
+  void rejectsDeeplyTaggedCbor() {
+    byte[] data = new byte[10000];
+    Arrays.fill(data, (byte) 0xc6);
+    RequestBody body = new RequestBody(createRequest(data), 0);
+    ApiException e = assertThrows(ApiException.class, () -> body.read(new Gson().getAdapter(Object.class)));
+    assertEquals(400, e.getStatusCode());
+  }
+
+  @Test
+  void rejectsTruncatedCborWhenReadIntoType() {
+    RequestBody body = new RequestBody(createRequest(TRUNCATED), 0);
+    ApiException e = assertThrows(ApiException.class, () -> body.read(new Gson().getAdapter(Object.class)));
+    assertEquals(400, e.getStatusCode());
+  }
+
+  @Test
+  void rejectsTruncatedCborWhenReadAsContent() {
+    RequestBody body = new RequestBody(createRequest(TRUNCATED), 0);
+    ApiException e = assertThrows(ApiException.class, body::getContent);
+    assertEquals(400, e.getStatusCode());
+  }
+
+  /**
+   * Creates a request with a CBOR body.
+   *
+   * @param data the bytes of the body
+   * @return the request
+   */
+  private static HttpServletRequest createRequest(byte[] data) {
+    ServletInputStream input = new ServletInputStream() {
+      private final ByteArrayInputStream in = new ByteArrayInputStream(data);
+
+      @Override
+      public int read() {
+        return in.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        return in.read(b, off, len);
+      }
+
+      @Override
+      public boolean isFinished() {
+        return in.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(ReadListener readListener) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    return (HttpServletRequest) Proxy.newProxyInstance(RequestBodyTest.class.getClassLoader(),
+        new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getContentType":
+              return Cbor.MEDIA_TYPE;
+            case "getContentLengthLong":
+              return (long) data.length;
+            case "getInputStream":
+              return input;
+            default:
+              return null;
+          }
+        });
+  }
+}